@@ -25,5 +25,24 @@
     void recreateReactContextInBackground();
 }
 
+# Loaded by name and invoked via reflection, when installing zstd-compressed updates.
+-keep class com.github.luben.zstd.ZstdInputStream {
+    <init>(java.io.InputStream);
+}
+
+-keep class io.airlift.compress.zstd.ZstdInputStream {
+    <init>(java.io.InputStream);
+}
+
+# Loaded by name and invoked via reflection, when applying bsdiff patches of diff updates.
+-keep class org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream {
+    <init>(java.io.InputStream);
+}
+
+# Optional dependencies that the app may not include.
+-dontwarn com.github.luben.zstd.**
+-dontwarn io.airlift.compress.**
+-dontwarn org.apache.commons.compress.**
+
 # Can't find referenced class org.bouncycastle.**
 -dontwarn com.nimbusds.jose.**
@@ -1,9 +1,12 @@
 package com.microsoft.codepush.react;
 
+import android.app.ActivityManager;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import com.facebook.react.ReactInstanceManager;
@@ -17,6 +20,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.NotActiveException;
 import java.util.ArrayList;
 import java.util.List;
@@ -36,12 +40,19 @@ public class CodePush implements ReactPackage {
     private CodePushUpdateManager mUpdateManager;
     private CodePushTelemetryManager mTelemetryManager;
     private SettingsManager mSettingsManager;
+    private CodePushUpdateJournal mUpdateJournal;
+    private CodePushTaskExecutor mTaskExecutor = new CodePushTaskExecutor();
 
     // Config properties.
     private String mDeploymentKey;
     private static String mServerUrl = "https://codepush.azurewebsites.net/";
 
     private Context mContext;
+
+    private boolean mIsBundleWarmUpEnabled = false;
+
+    // Read from the resources once, since it can't change while the process is running.
+    private volatile Long mBinaryResourcesModifiedTime;
     private final boolean mIsDebugMode;
 
     private static String mPublicKey;
@@ -61,10 +72,12 @@ public class CodePush implements ReactPackage {
         mContext = context.getApplicationContext();
 
         mUpdateManager = new CodePushUpdateManager(context.getFilesDir().getAbsolutePath());
-        mTelemetryManager = new CodePushTelemetryManager(mContext);
+        CodePushPreferenceStore preferenceStore = new CodePushPreferenceStore(mContext);
+        mTelemetryManager = new CodePushTelemetryManager(preferenceStore);
         mDeploymentKey = deploymentKey;
         mIsDebugMode = isDebugMode;
-        mSettingsManager = new SettingsManager(mContext);
+        mSettingsManager = new SettingsManager(preferenceStore);
+        mUpdateJournal = new CodePushUpdateJournal(mUpdateManager, mSettingsManager);
 
         if (sAppVersion == null) {
             try {
@@ -120,6 +133,32 @@ public class CodePush implements ReactPackage {
         return publicKey;
     }
 
+    void setStreamingExtractionEnabled(boolean isStreamingExtractionEnabled) {
+        mUpdateManager.setStreamingExtractionEnabled(isStreamingExtractionEnabled);
+    }
+
+    void setBlobStoreEnabled(boolean isBlobStoreEnabled) {
+        mUpdateManager.setBlobStoreEnabled(isBlobStoreEnabled);
+    }
+
+    void setSegmentedDownloadEnabled(boolean isSegmentedDownloadEnabled) {
+        mUpdateManager.setSegmentedDownloadEnabled(isSegmentedDownloadEnabled);
+    }
+
+    // When enabled, the bundle and largest assets of a newly installed update are read into the page
+    // cache before the app restarts into it, unless the device is low on memory.
+    void setBundleWarmUpEnabled(boolean isBundleWarmUpEnabled) {
+        mIsBundleWarmUpEnabled = isBundleWarmUpEnabled;
+    }
+
+    void setHttpTransport(CodePushHttpTransport httpTransport) {
+        mUpdateManager.setHttpTransport(httpTransport);
+    }
+
+    void setDownloadProgressGranularity(long byteGranularity, int percentGranularity, long timeGranularityMs) {
+        mUpdateManager.setDownloadProgressGranularity(byteGranularity, percentGranularity, timeGranularityMs);
+    }
+
     public void clearDebugCacheIfNeeded() {
         if (mIsDebugMode && mSettingsManager.isPendingUpdate(null)) {
             // This needs to be kept in sync with https://github.com/facebook/react-native/blob/master/ReactAndroid/src/main/java/com/facebook/react/devsupport/DevSupportManager.java#L78
@@ -146,7 +185,21 @@ public class CodePush implements ReactPackage {
         return mPublicKey;
     }
 
+    CodePushTaskExecutor getTaskExecutor() {
+        return mTaskExecutor;
+    }
+
     long getBinaryResourcesModifiedTime() {
+        Long binaryResourcesModifiedTime = mBinaryResourcesModifiedTime;
+        if (binaryResourcesModifiedTime == null) {
+            binaryResourcesModifiedTime = readBinaryResourcesModifiedTime();
+            mBinaryResourcesModifiedTime = binaryResourcesModifiedTime;
+        }
+
+        return binaryResourcesModifiedTime;
+    }
+
+    private long readBinaryResourcesModifiedTime() {
         try {
             String packageName = this.mContext.getPackageName();
             int codePushApkBuildTimeId = this.mContext.getResources().getIdentifier(CodePushConstants.CODE_PUSH_APK_BUILD_TIME_KEY, "string", packageName);
@@ -189,27 +242,36 @@ public class CodePush implements ReactPackage {
         return mCurrentInstance.getJSBundleFileInternal(assetsBundleFileName);
     }
 
+    // The update manager with the options set through CodePushBuilder, or null if no CodePush
+    // instance has been created in this process.
+    static CodePushUpdateManager getCurrentUpdateManager() {
+        CodePush currentInstance = mCurrentInstance;
+        return currentInstance == null ? null : currentInstance.mUpdateManager;
+    }
+
     public String getJSBundleFileInternal(String assetsBundleFileName) {
         this.mAssetsBundleFileName = assetsBundleFileName;
         String binaryJsBundleUrl = CodePushConstants.ASSETS_BUNDLE_PREFIX + assetsBundleFileName;
 
-        String packageFilePath = mUpdateManager.getCurrentPackageBundlePath(this.mAssetsBundleFileName);
-        if (packageFilePath == null) {
+        // The boot record holds everything needed here, so that this, which delays loading JS on
+        // every start, reads a single small file.
+        JSONObject bootRecord = mUpdateManager.getBootRecord();
+        if (bootRecord == null) {
             // There has not been any downloaded updates.
             CodePushUtils.logBundleUrl(binaryJsBundleUrl);
             sIsRunningBinaryVersion = true;
             return binaryJsBundleUrl;
         }
 
-        JSONObject packageMetadata = this.mUpdateManager.getCurrentPackage();
-        if (isPackageBundleLatest(packageMetadata)) {
+        if (isPackageBundleLatest(bootRecord)) {
+            String packageFilePath = mUpdateManager.getBootRecordBundlePath(bootRecord, this.mAssetsBundleFileName);
             CodePushUtils.logBundleUrl(packageFilePath);
             sIsRunningBinaryVersion = false;
             return packageFilePath;
         } else {
             // The binary version is newer.
             this.mDidUpdate = false;
-            if (!this.mIsDebugMode || hasBinaryVersionChanged(packageMetadata)) {
+            if (!this.mIsDebugMode || hasBinaryVersionChanged(bootRecord)) {
                 this.clearUpdates();
             }
 
@@ -228,10 +290,13 @@ public class CodePush implements ReactPackage {
         // the app was just freshly updated.
         mDidUpdate = false;
 
+        // Finish an install or rollback that was interrupted, so that the state read below is consistent.
+        mUpdateJournal.recover();
+
         JSONObject pendingUpdate = mSettingsManager.getPendingUpdate();
         if (pendingUpdate != null) {
-            JSONObject packageMetadata = this.mUpdateManager.getCurrentPackage();
-            if (packageMetadata == null || !isPackageBundleLatest(packageMetadata) && hasBinaryVersionChanged(packageMetadata)) {
+            JSONObject bootRecord = this.mUpdateManager.getBootRecord();
+            if (bootRecord == null || !isPackageBundleLatest(bootRecord) && hasBinaryVersionChanged(bootRecord)) {
                 CodePushUtils.log("Skipping initializeUpdateAfterRestart(), binary version is newer");
                 return;
             }
@@ -253,6 +318,10 @@ public class CodePush implements ReactPackage {
                     // we will know that we need to rollback when the app next starts.
                     mSettingsManager.savePendingUpdate(pendingUpdate.getString(CodePushConstants.PENDING_UPDATE_HASH_KEY),
                             /* isLoading */true);
+
+                    // This must be on disk before the update runs, or a crash while loading it
+                    // would not be detected.
+                    mSettingsManager.flush();
                 }
             } catch (JSONException e) {
                 // Should not happen.
@@ -273,6 +342,7 @@ public class CodePush implements ReactPackage {
         return sIsRunningBinaryVersion;
     }
 
+    // Accepts either the metadata or the boot record of a package, which use the same keys.
     private boolean isPackageBundleLatest(JSONObject packageMetadata) {
         try {
             Long binaryModifiedDateDuringPackageInstall = null;
@@ -280,7 +350,7 @@ public class CodePush implements ReactPackage {
             if (binaryModifiedDateDuringPackageInstallString != null) {
                 binaryModifiedDateDuringPackageInstall = Long.parseLong(binaryModifiedDateDuringPackageInstallString);
             }
-            String packageAppVersion = packageMetadata.optString("appVersion", null);
+            String packageAppVersion = packageMetadata.optString(CodePushConstants.APP_VERSION_KEY, null);
             long binaryResourcesModifiedTime = this.getBinaryResourcesModifiedTime();
             return binaryModifiedDateDuringPackageInstall != null &&
                     binaryModifiedDateDuringPackageInstall == binaryResourcesModifiedTime &&
@@ -291,7 +361,7 @@ public class CodePush implements ReactPackage {
     }
 
     private boolean hasBinaryVersionChanged(JSONObject packageMetadata) {
-        String packageAppVersion = packageMetadata.optString("appVersion", null);
+        String packageAppVersion = packageMetadata.optString(CodePushConstants.APP_VERSION_KEY, null);
         return !sAppVersion.equals(packageAppVersion);
     }
 
@@ -303,11 +373,74 @@ public class CodePush implements ReactPackage {
         sAppVersion = appVersionOverride;
     }
 
+    // Reads the current package into the page cache if bundle warm-up is enabled. This is done while
+    // the app still shows the previous version, so that the restart into the update, during which
+    // the screen is blank, doesn't wait for storage.
+    void warmUpCurrentPackage() {
+        if (!mIsBundleWarmUpEnabled) {
+            return;
+        }
+
+        long byteBudget = getWarmUpByteBudget();
+        if (byteBudget <= 0) {
+            CodePushUtils.log("Skipping warm-up of the installed update, the device is low on memory.");
+            return;
+        }
+
+        JSONObject bootRecord = mUpdateManager.getBootRecord();
+        if (bootRecord == null) {
+            return;
+        }
+
+        String bundleFileName = mAssetsBundleFileName != null ? mAssetsBundleFileName : CodePushConstants.DEFAULT_JS_BUNDLE_NAME;
+        long startTime = SystemClock.elapsedRealtime();
+        try {
+            long loadedBytes = mUpdateManager.warmUpPackage(bootRecord, bundleFileName, byteBudget);
+            CodePushUtils.log("Warmed up " + loadedBytes + " bytes of the installed update in " + (SystemClock.elapsedRealtime() - startTime) + " ms.");
+        } catch (IOException e) {
+            // The update is loaded from storage instead, so this doesn't affect the install.
+            CodePushUtils.log("Unable to warm up the installed update: " + e.getMessage());
+        }
+    }
+
+    // Returns how many bytes may be read into the page cache without pushing the system towards
+    // killing background processes, or 0 if it is already low on memory.
+    private long getWarmUpByteBudget() {
+        ActivityManager activityManager = (ActivityManager) mContext.getSystemService(Context.ACTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice()) {
+            return 0;
+        }
+
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        if (memoryInfo.lowMemory) {
+            return 0;
+        }
+
+        return (memoryInfo.availMem - memoryInfo.threshold) / 4;
+    }
+
+    void installPackage(JSONObject updatePackage) {
+        String pendingHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
+        if (pendingHash == null) {
+            throw new CodePushUnknownException("Update package to be installed has no hash.");
+        }
+
+        JSONObject transition = mUpdateManager.getInstallTransition(updatePackage, mSettingsManager.isPendingUpdate(null));
+        if (transition == null) {
+            mSettingsManager.savePendingUpdate(pendingHash, /* isLoading */false);
+            return;
+        }
+
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_PENDING_UPDATE_HASH_KEY, pendingHash);
+        mUpdateJournal.commit(transition);
+    }
+
     private void rollbackPackage() {
-        JSONObject failedPackage = mUpdateManager.getCurrentPackage();
-        mSettingsManager.saveFailedUpdate(failedPackage);
-        mUpdateManager.rollbackPackage();
-        mSettingsManager.removePendingUpdate();
+        JSONObject transition = mUpdateManager.getRollbackTransition();
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_FAILED_UPDATE_KEY, mUpdateManager.getCurrentPackage());
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_REMOVE_PENDING_UPDATE_KEY, true);
+        mUpdateJournal.commit(transition);
     }
 
     public void setNeedToReportRollback(boolean needToReportRollback) {
@@ -327,6 +460,7 @@ public class CodePush implements ReactPackage {
         mUpdateManager.clearUpdates();
         mSettingsManager.removePendingUpdate();
         mSettingsManager.removeFailedUpdates();
+        mSettingsManager.flush();
     }
 
     public static void setReactInstanceHolder(ReactInstanceHolder reactInstanceHolder) {
@@ -0,0 +1,90 @@
+package com.microsoft.codepush.react;
+
+import java.io.File;
+import java.util.Map;
+
+// Content-addressable store of package files, keyed by the SHA-256 hash of their contents. Package
+// folders refer to the stored files through hard links, so files that are identical between packages
+// are kept on disk only once. A blob is no longer used by any package once its link count drops to 1.
+public class CodePushBlobStore {
+
+    private String mStorePath;
+
+    public CodePushBlobStore(String storePath) {
+        mStorePath = storePath;
+    }
+
+    public static boolean isSupported() {
+        return FileUtils.isHardLinkSupported();
+    }
+
+    // Moves the files of a verified package folder into the store, replacing each of them with a hard
+    // link to the blob with the same contents. fileHashes may contain already known hashes, keyed by
+    // path relative to the folder.
+    public void addFolderContents(String folderPath, Map<String, String> fileHashes) {
+        File storeFolder = new File(mStorePath);
+        storeFolder.mkdirs();
+        addFolderContents(new File(folderPath), "", fileHashes);
+    }
+
+    private void addFolderContents(File folder, String pathPrefix, Map<String, String> fileHashes) {
+        for (File file : folder.listFiles()) {
+            String relativePath = (pathPrefix.isEmpty() ? "" : (pathPrefix + "/")) + file.getName();
+            if (file.isDirectory()) {
+                addFolderContents(file, relativePath, fileHashes);
+                continue;
+            }
+
+            // The package metadata is rewritten in place, so it must never be shared.
+            if (relativePath.equals(CodePushConstants.PACKAGE_FILE_NAME)) {
+                continue;
+            }
+
+            // Files hard-linked from another package are already backed by a blob.
+            if (FileUtils.getHardLinkCount(file) > 1) {
+                continue;
+            }
+
+            String fileHash = fileHashes.get(relativePath);
+            if (fileHash == null) {
+                fileHash = CodePushUpdateUtils.computeFileHash(file);
+            }
+
+            File blob = new File(mStorePath, fileHash);
+            if (!blob.exists()) {
+                FileUtils.createHardLink(file, blob);
+                continue;
+            }
+
+            // Link to the existing blob next to the file first, so that the file is never missing.
+            File link = new File(file.getParentFile(), file.getName() + ".link");
+            if (FileUtils.createHardLink(blob, link) && !link.renameTo(file)) {
+                link.delete();
+            }
+        }
+    }
+
+    // Deletes the store folder if no blobs are left in it.
+    public void deleteIfEmpty() {
+        File storeFolder = new File(mStorePath);
+        String[] blobNames = storeFolder.list();
+        if (blobNames != null && blobNames.length == 0) {
+            storeFolder.delete();
+        }
+    }
+
+    // Deletes the blobs that no package folder links to anymore.
+    public void removeUnusedBlobs() {
+        File storeFolder = new File(mStorePath);
+        File[] blobs = storeFolder.listFiles();
+        if (blobs == null) {
+            return;
+        }
+
+        for (File blob : blobs) {
+            if (FileUtils.getHardLinkCount(blob) <= 1) {
+                FileUtils.deleteFileOrFolderSilently(blob);
+            }
+        }
+    }
+}
@@ -9,6 +9,14 @@ public class CodePushBuilder {
     private boolean mIsDebugMode;
     private String mServerUrl;
     private Integer mPublicKeyResourceDescriptor;
+    private boolean mIsStreamingExtractionEnabled;
+    private boolean mIsBlobStoreEnabled;
+    private boolean mIsSegmentedDownloadEnabled;
+    private boolean mIsBundleWarmUpEnabled;
+    private CodePushHttpTransport mHttpTransport;
+    private long mDownloadProgressByteGranularity = CodePushConstants.DEFAULT_DOWNLOAD_PROGRESS_BYTE_GRANULARITY;
+    private int mDownloadProgressPercentGranularity = CodePushConstants.DEFAULT_DOWNLOAD_PROGRESS_PERCENT_GRANULARITY;
+    private long mDownloadProgressTimeGranularityMs = CodePushConstants.DEFAULT_DOWNLOAD_PROGRESS_TIME_GRANULARITY_MS;
 
     public CodePushBuilder(String deploymentKey, Context context) {
         this.mDeploymentKey = deploymentKey;
@@ -31,7 +39,47 @@ public class CodePushBuilder {
         return this;
     }
 
+    public CodePushBuilder setIsStreamingExtractionEnabled(boolean isStreamingExtractionEnabled) {
+        this.mIsStreamingExtractionEnabled = isStreamingExtractionEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setIsBlobStoreEnabled(boolean isBlobStoreEnabled) {
+        this.mIsBlobStoreEnabled = isBlobStoreEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setIsSegmentedDownloadEnabled(boolean isSegmentedDownloadEnabled) {
+        this.mIsSegmentedDownloadEnabled = isSegmentedDownloadEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setIsBundleWarmUpEnabled(boolean isBundleWarmUpEnabled) {
+        this.mIsBundleWarmUpEnabled = isBundleWarmUpEnabled;
+        return this;
+    }
+
+    public CodePushBuilder setHttpTransport(CodePushHttpTransport httpTransport) {
+        this.mHttpTransport = httpTransport;
+        return this;
+    }
+
+    public CodePushBuilder setDownloadProgressGranularity(long byteGranularity, int percentGranularity, long timeGranularityMs) {
+        this.mDownloadProgressByteGranularity = byteGranularity;
+        this.mDownloadProgressPercentGranularity = percentGranularity;
+        this.mDownloadProgressTimeGranularityMs = timeGranularityMs;
+        return this;
+    }
+
     public CodePush build() {
-        return new CodePush(this.mDeploymentKey, this.mContext, this.mIsDebugMode, this.mServerUrl, this.mPublicKeyResourceDescriptor);
+        CodePush codePush = new CodePush(this.mDeploymentKey, this.mContext, this.mIsDebugMode, this.mServerUrl, this.mPublicKeyResourceDescriptor);
+        codePush.setStreamingExtractionEnabled(this.mIsStreamingExtractionEnabled);
+        codePush.setBlobStoreEnabled(this.mIsBlobStoreEnabled);
+        codePush.setSegmentedDownloadEnabled(this.mIsSegmentedDownloadEnabled);
+        codePush.setBundleWarmUpEnabled(this.mIsBundleWarmUpEnabled);
+        codePush.setHttpTransport(this.mHttpTransport);
+        codePush.setDownloadProgressGranularity(this.mDownloadProgressByteGranularity,
+                this.mDownloadProgressPercentGranularity, this.mDownloadProgressTimeGranularityMs);
+        return codePush;
     }
 }
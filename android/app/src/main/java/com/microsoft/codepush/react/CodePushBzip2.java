@@ -0,0 +1,60 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+// Decodes the bzip2-compressed blocks of standard bsdiff patches with a decoder that the app bundles
+// itself, so that apps which don't publish such patches don't pay for it. The decoder of Apache
+// Commons Compress (org.apache.commons:commons-compress) is used.
+class CodePushBzip2 {
+
+    private static final String DECODER_CLASS_NAME = "org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream";
+
+    private static Constructor<? extends InputStream> sDecoderConstructor;
+    private static boolean sIsDecoderLoaded = false;
+
+    // Returns a stream of the decompressed contents of compressedStream.
+    static InputStream createInputStream(InputStream compressedStream) throws IOException {
+        Constructor<? extends InputStream> decoderConstructor;
+        synchronized (CodePushBzip2.class) {
+            decoderConstructor = getDecoderConstructor();
+        }
+
+        if (decoderConstructor == null) {
+            throw new CodePushInvalidUpdateException("Update is invalid - It contains bsdiff patches compressed with bzip2, " +
+                    "but no bzip2 decoder is available. Add Apache Commons Compress (org.apache.commons:commons-compress) " +
+                    "to your app's dependencies to install such updates.");
+        }
+
+        try {
+            return decoderConstructor.newInstance(compressedStream);
+        } catch (InvocationTargetException e) {
+            // The decoder reads the stream header right away.
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new CodePushUnknownException("Unable to create the bzip2 decoder.", e.getCause());
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new CodePushUnknownException("Unable to create the bzip2 decoder.", e);
+        }
+    }
+
+    private static Constructor<? extends InputStream> getDecoderConstructor() {
+        if (sIsDecoderLoaded) {
+            return sDecoderConstructor;
+        }
+
+        sIsDecoderLoaded = true;
+        try {
+            sDecoderConstructor = Class.forName(DECODER_CLASS_NAME).asSubclass(InputStream.class)
+                    .getConstructor(InputStream.class);
+        } catch (ClassNotFoundException | NoSuchMethodException | ClassCastException | LinkageError e) {
+            sDecoderConstructor = null;
+        }
+
+        return sDecoderConstructor;
+    }
+}
@@ -1,8 +1,11 @@
 package com.microsoft.codepush.react;
 
 public class CodePushConstants {
+    public static final String APP_VERSION_KEY = "appVersion";
     public static final String ASSETS_BUNDLE_PREFIX = "assets://";
     public static final String BINARY_MODIFIED_TIME_KEY = "binaryModifiedTime";
+    public static final String BLOB_STORE_FOLDER_NAME = "blobs";
+    public static final String BOOT_RECORD_FILE_NAME = "boot.json";
     public static final String CODE_PUSH_FOLDER_PREFIX = "CodePush";
     public static final String CODE_PUSH_HASH_FILE_NAME = "CodePushHash";
     public static final String CODE_PUSH_OLD_HASH_FILE_NAME = "CodePushHash.json";
@@ -10,22 +13,49 @@ public class CodePushConstants {
     public static final String CURRENT_PACKAGE_KEY = "currentPackage";
     public static final String DEFAULT_JS_BUNDLE_NAME = "index.android.bundle";
     public static final String DIFF_MANIFEST_FILE_NAME = "hotcodepush.json";
+    public static final String DIFF_PATCH_FILE_EXTENSION = ".bspatch";
     public static final int DOWNLOAD_BUFFER_SIZE = 1024 * 256;
+    public static final long DEFAULT_DOWNLOAD_PROGRESS_BYTE_GRANULARITY = 0;
+    public static final int DEFAULT_DOWNLOAD_PROGRESS_PERCENT_GRANULARITY = 1;
+    public static final long DEFAULT_DOWNLOAD_PROGRESS_TIME_GRANULARITY_MS = 16;
     public static final String DOWNLOAD_FILE_NAME = "download.zip";
     public static final String DOWNLOAD_PROGRESS_EVENT_NAME = "CodePushDownloadProgress";
+    public static final int DOWNLOAD_STATE_CHECKPOINT_SIZE = 1024 * 1024;
+    public static final String DOWNLOAD_STATE_ETAG_KEY = "etag";
+    public static final String DOWNLOAD_STATE_FILE_NAME = "download.json";
+    public static final String DOWNLOAD_STATE_RECEIVED_BYTES_KEY = "receivedBytes";
+    public static final String DOWNLOAD_STATE_TOTAL_BYTES_KEY = "totalBytes";
+    public static final String DOWNLOAD_STATE_URL_KEY = "url";
     public static final String DOWNLOAD_URL_KEY = "downloadUrl";
     public static final String FAILED_UPDATES_KEY = "CODE_PUSH_FAILED_UPDATES";
+    public static final String FILE_HASHES_FILE_NAME = ".codepushhashes";
+    public static final String JOURNAL_FILE_NAME = "journal.json";
     public static final String PACKAGE_FILE_NAME = "app.json";
     public static final String PACKAGE_HASH_KEY = "packageHash";
     public static final String PENDING_UPDATE_HASH_KEY = "hash";
     public static final String PENDING_UPDATE_IS_LOADING_KEY = "isLoading";
     public static final String PENDING_UPDATE_KEY = "CODE_PUSH_PENDING_UPDATE";
+    public static final String PREFETCH_BUNDLE_FILE_NAME_KEY = "bundleFileName";
+    public static final String PREFETCH_IS_BLOB_STORE_ENABLED_KEY = "isBlobStoreEnabled";
+    public static final String PREFETCH_IS_COMPLETE_KEY = "isComplete";
+    public static final String PREFETCH_IS_SEGMENTED_DOWNLOAD_ENABLED_KEY = "isSegmentedDownloadEnabled";
+    public static final String PREFETCH_IS_STREAMING_EXTRACTION_ENABLED_KEY = "isStreamingExtractionEnabled";
+    public static final int PREFETCH_JOB_ID = 0x43500001;
+    public static final String PREFETCH_PUBLIC_KEY_KEY = "publicKey";
+    public static final String PREFETCH_REQUEST_FILE_NAME = "prefetch.json";
+    public static final String PREFETCH_UPDATE_PACKAGE_KEY = "updatePackage";
     public static final String PREVIOUS_PACKAGE_KEY = "previousPackage";
     public static final String REACT_NATIVE_LOG_TAG = "ReactNative";
     public static final String RELATIVE_BUNDLE_PATH_KEY = "bundlePath";
     public static final String RESOURCES_BUNDLE = "resources.arsc";
     public static final String STATUS_FILE = "codepush.json";
+    public static final String TRANSITION_DELETED_PACKAGES_KEY = "deletedPackages";
+    public static final String TRANSITION_FAILED_UPDATE_KEY = "failedUpdate";
+    public static final String TRANSITION_PENDING_UPDATE_HASH_KEY = "pendingUpdateHash";
+    public static final String TRANSITION_REMOVE_PENDING_UPDATE_KEY = "removePendingUpdate";
+    public static final String TRANSITION_STATUS_KEY = "status";
     public static final String UNZIPPED_FOLDER_NAME = "unzipped";
+    public static final int WARM_UP_MAX_ASSET_COUNT = 16;
     public static final String CODE_PUSH_APK_BUILD_TIME_KEY = "CODE_PUSH_APK_BUILD_TIME";
     public static final String BUNDLE_JWT_FILE = ".codepushrelease";
 }
@@ -0,0 +1,114 @@
+package com.microsoft.codepush.react;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+// Uses the platform's HttpURLConnection, which keeps idle keep-alive connections in a pool shared by
+// the whole process and reuses them for later requests to the same host, along with their TLS sessions.
+public class CodePushDefaultHttpTransport implements CodePushHttpTransport {
+
+    @Override
+    public CodePushHttpResponse execute(CodePushHttpRequest request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        try {
+            connection.setUseCaches(false);
+            connection.setRequestMethod(request.getMethod());
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            return new Response(connection, connection.getResponseCode());
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private static class Response implements CodePushHttpResponse {
+
+        private final HttpURLConnection mConnection;
+        private final int mStatusCode;
+        private InputStream mBody;
+        private volatile boolean mIsBodyConsumed = false;
+        private boolean mIsClosed = false;
+
+        Response(HttpURLConnection connection, int statusCode) {
+            mConnection = connection;
+            mStatusCode = statusCode;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public synchronized InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream connectionStream = mStatusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (connectionStream == null) {
+                    throw new IOException("The response to " + mConnection.getURL() + " has no body.");
+                }
+
+                mBody = new FilterInputStream(connectionStream) {
+                    @Override
+                    public int read() throws IOException {
+                        int result = super.read();
+                        if (result < 0) {
+                            mIsBodyConsumed = true;
+                        }
+
+                        return result;
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, int offset, int length) throws IOException {
+                        int numBytesRead = super.read(buffer, offset, length);
+                        if (numBytesRead < 0) {
+                            mIsBodyConsumed = true;
+                        }
+
+                        return numBytesRead;
+                    }
+                };
+            }
+
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            InputStream body;
+            synchronized (this) {
+                if (mIsClosed) {
+                    return;
+                }
+
+                mIsClosed = true;
+                body = mBody;
+            }
+
+            if (mIsBodyConsumed && body != null) {
+                // Closing the stream of a complete response returns its socket to the pool.
+                try {
+                    body.close();
+                    return;
+                } catch (IOException e) {
+                    // Fall through and drop the connection instead.
+                }
+            }
+
+            mConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.microsoft.codepush.react;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Lets another thread stop a package download. A canceled download discards what was received so
+// far, while a paused one keeps it so that the download can later be resumed where it stopped.
+public class CodePushDownloadHandle {
+
+    private boolean mIsCanceled = false;
+    private boolean mIsPaused = false;
+    private CodePushHttpResponse mResponse;
+    private List<CodePushHttpResponse> mAdditionalResponses = new ArrayList<>();
+    private Runnable mPausedTask;
+
+    public synchronized void cancel() {
+        mIsCanceled = true;
+        disconnect();
+    }
+
+    public synchronized void pause() {
+        if (!mIsCanceled) {
+            mIsPaused = true;
+            disconnect();
+        }
+    }
+
+    // Returns the task to run to continue the download if it had already stopped, or null if it
+    // is still running and will simply carry on.
+    public synchronized Runnable resume() {
+        mIsPaused = false;
+        Runnable pausedTask = mPausedTask;
+        mPausedTask = null;
+        return pausedTask;
+    }
+
+    public synchronized boolean isCanceled() {
+        return mIsCanceled;
+    }
+
+    public synchronized boolean isPaused() {
+        return mIsPaused;
+    }
+
+    // Records the task that continues the download once resume() is called. Returns false if the
+    // download was resumed in the meantime, in which case the caller should continue it right away.
+    synchronized boolean setPausedTask(Runnable pausedTask) {
+        if (!mIsPaused || mIsCanceled) {
+            return false;
+        }
+
+        mPausedTask = pausedTask;
+        return true;
+    }
+
+    // Closing the response unblocks a read that is waiting for the network.
+    synchronized void setResponse(CodePushHttpResponse response) {
+        mResponse = response;
+        if (mIsCanceled || mIsPaused) {
+            disconnect();
+        }
+    }
+
+    // For downloads that use more than one connection at a time.
+    synchronized void addResponse(CodePushHttpResponse response) {
+        mAdditionalResponses.add(response);
+        if (mIsCanceled || mIsPaused) {
+            disconnect();
+        }
+    }
+
+    synchronized void removeResponse(CodePushHttpResponse response) {
+        mAdditionalResponses.remove(response);
+    }
+
+    void throwIfInterrupted() {
+        if (isCanceled()) {
+            throw new CodePushDownloadInterruptedException("The download was canceled.");
+        } else if (isPaused()) {
+            throw new CodePushDownloadInterruptedException("The download was paused.");
+        }
+    }
+
+    private void disconnect() {
+        if (mResponse != null) {
+            mResponse.close();
+            mResponse = null;
+        }
+
+        for (CodePushHttpResponse response : mAdditionalResponses) {
+            response.close();
+        }
+
+        mAdditionalResponses.clear();
+    }
+}
@@ -0,0 +1,7 @@
+package com.microsoft.codepush.react;
+
+public class CodePushDownloadInterruptedException extends RuntimeException {
+    public CodePushDownloadInterruptedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,40 @@
+package com.microsoft.codepush.react;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A request sent through a CodePushHttpTransport.
+public class CodePushHttpRequest {
+
+    private final String mMethod;
+    private final String mUrl;
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+    public CodePushHttpRequest(String method, String url) {
+        mMethod = method;
+        mUrl = url;
+    }
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    // Replaces any value previously set for the header.
+    public CodePushHttpRequest setHeader(String name, String value) {
+        mHeaders.put(name, value);
+        return this;
+    }
+
+    public String getHeader(String name) {
+        return mHeaders.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(mHeaders);
+    }
+}
@@ -0,0 +1,21 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// The response to a request sent through a CodePushHttpTransport.
+public interface CodePushHttpResponse {
+
+    int getStatusCode();
+
+    // Returns the value of the response header, matching its name case-insensitively, or null if
+    // the response doesn't have it.
+    String getHeader(String name);
+
+    InputStream getBody() throws IOException;
+
+    // Releases the response. If its body was read to the end, the transport may reuse the connection.
+    // Otherwise the connection is closed, which also fails a read of the body in progress on another
+    // thread. Calling it more than once has no effect.
+    void close();
+}
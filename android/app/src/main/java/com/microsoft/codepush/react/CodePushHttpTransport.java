@@ -0,0 +1,13 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+
+// Sends the requests that updates are downloaded with. Implement this to send CodePush traffic
+// through the app's own HTTP client, such as OkHttp, so that it shares the client's connection
+// pool, TLS sessions and HTTP/2 support.
+public interface CodePushHttpTransport {
+
+    // Sends the request and returns once the status code and headers of the response are known.
+    // Responses with an error status are returned as well rather than thrown.
+    CodePushHttpResponse execute(CodePushHttpRequest request) throws IOException;
+}
@@ -0,0 +1,233 @@
+package com.microsoft.codepush.react;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Converts the metadata of installed packages to bridge maps. Bridge maps can only be passed to JS
+// once, so a new one is built for every call, but from a snapshot of the metadata that is kept per
+// package hash until a package metadata file changes. Building a map from a snapshot takes a single
+// pass, without looking up keys in the JSON or checking the types of values again.
+class CodePushMetadataConverter {
+
+    // Enough for the current, previous and pending packages.
+    private static final int MAX_CACHED_PACKAGE_COUNT = 4;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_BOOLEAN = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_STRING = 4;
+    private static final byte TYPE_MAP = 5;
+    private static final byte TYPE_ARRAY = 6;
+
+    // The keys (for maps only), types and values of the entries of a JSONObject or JSONArray.
+    private static final class Snapshot {
+        final String[] keys;
+        final byte[] types;
+        final Object[] values;
+
+        Snapshot(String[] keys, byte[] types, Object[] values) {
+            this.keys = keys;
+            this.types = types;
+            this.values = values;
+        }
+    }
+
+    private static final class CacheEntry {
+        final long metadataVersion;
+        final Snapshot snapshot;
+
+        CacheEntry(long metadataVersion, Snapshot snapshot) {
+            this.metadataVersion = metadataVersion;
+            this.snapshot = snapshot;
+        }
+    }
+
+    private final CodePushUpdateManager mUpdateManager;
+
+    // Guarded by itself.
+    private final Map<String, CacheEntry> mCache = new LinkedHashMap<String, CacheEntry>(MAX_CACHED_PACKAGE_COUNT, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHED_PACKAGE_COUNT;
+        }
+    };
+
+    public CodePushMetadataConverter(CodePushUpdateManager updateManager) {
+        mUpdateManager = updateManager;
+    }
+
+    // Returns the metadata of the installed package as a new bridge map, or null if there is no such package.
+    public WritableMap getPackage(String packageHash) {
+        if (packageHash == null) {
+            return null;
+        }
+
+        long metadataVersion = mUpdateManager.getPackageMetadataVersion();
+        CacheEntry cacheEntry;
+        synchronized (mCache) {
+            cacheEntry = mCache.get(packageHash);
+        }
+
+        if (cacheEntry == null || cacheEntry.metadataVersion != metadataVersion) {
+            JSONObject packageMetadata = mUpdateManager.getPackage(packageHash);
+            if (packageMetadata == null) {
+                return null;
+            }
+
+            cacheEntry = new CacheEntry(metadataVersion, createSnapshot(packageMetadata));
+            synchronized (mCache) {
+                mCache.put(packageHash, cacheEntry);
+            }
+        }
+
+        return createMap(cacheEntry.snapshot);
+    }
+
+    public WritableMap getCurrentPackage() {
+        return getPackage(mUpdateManager.getCurrentPackageHash());
+    }
+
+    public WritableMap getPreviousPackage() {
+        return getPackage(mUpdateManager.getPreviousPackageHash());
+    }
+
+    private static Snapshot createSnapshot(JSONObject jsonObj) {
+        int length = jsonObj.length();
+        String[] keys = new String[length];
+        byte[] types = new byte[length];
+        Object[] values = new Object[length];
+        // Some org.json versions declare keys() with a raw Iterator.
+        @SuppressWarnings("unchecked")
+        Iterator<String> it = jsonObj.keys();
+        for (int i = 0; i < length && it.hasNext(); i++) {
+            keys[i] = it.next();
+            Object value = jsonObj.opt(keys[i]);
+            types[i] = getType(value);
+            values[i] = getSnapshotValue(types[i], value);
+        }
+
+        return new Snapshot(keys, types, values);
+    }
+
+    private static Snapshot createSnapshot(JSONArray jsonArr) {
+        int length = jsonArr.length();
+        byte[] types = new byte[length];
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            Object value = jsonArr.opt(i);
+            types[i] = getType(value);
+            values[i] = getSnapshotValue(types[i], value);
+        }
+
+        return new Snapshot(null, types, values);
+    }
+
+    private static byte getType(Object value) {
+        if (value instanceof String) {
+            return TYPE_STRING;
+        } else if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        } else if (value instanceof Integer) {
+            return TYPE_INT;
+        } else if (value instanceof Number) {
+            return TYPE_DOUBLE;
+        } else if (value instanceof JSONObject) {
+            return TYPE_MAP;
+        } else if (value instanceof JSONArray) {
+            return TYPE_ARRAY;
+        } else if (value == null || value == JSONObject.NULL) {
+            return TYPE_NULL;
+        } else {
+            throw new CodePushUnknownException("Unrecognized object: " + value);
+        }
+    }
+
+    private static Object getSnapshotValue(byte type, Object value) {
+        switch (type) {
+            case TYPE_DOUBLE:
+                return ((Number) value).doubleValue();
+            case TYPE_MAP:
+                return createSnapshot((JSONObject) value);
+            case TYPE_ARRAY:
+                return createSnapshot((JSONArray) value);
+            case TYPE_NULL:
+                return null;
+            default:
+                return value;
+        }
+    }
+
+    private static WritableMap createMap(Snapshot snapshot) {
+        WritableMap map = Arguments.createMap();
+        String[] keys = snapshot.keys;
+        Object[] values = snapshot.values;
+        for (int i = 0; i < keys.length; i++) {
+            switch (snapshot.types[i]) {
+                case TYPE_STRING:
+                    map.putString(keys[i], (String) values[i]);
+                    break;
+                case TYPE_BOOLEAN:
+                    map.putBoolean(keys[i], (Boolean) values[i]);
+                    break;
+                case TYPE_INT:
+                    map.putInt(keys[i], (Integer) values[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    map.putDouble(keys[i], (Double) values[i]);
+                    break;
+                case TYPE_MAP:
+                    map.putMap(keys[i], createMap((Snapshot) values[i]));
+                    break;
+                case TYPE_ARRAY:
+                    map.putArray(keys[i], createArray((Snapshot) values[i]));
+                    break;
+                default:
+                    map.putNull(keys[i]);
+                    break;
+            }
+        }
+
+        return map;
+    }
+
+    private static WritableArray createArray(Snapshot snapshot) {
+        WritableArray arr = Arguments.createArray();
+        Object[] values = snapshot.values;
+        for (int i = 0; i < values.length; i++) {
+            switch (snapshot.types[i]) {
+                case TYPE_STRING:
+                    arr.pushString((String) values[i]);
+                    break;
+                case TYPE_BOOLEAN:
+                    arr.pushBoolean((Boolean) values[i]);
+                    break;
+                case TYPE_INT:
+                    arr.pushInt((Integer) values[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    arr.pushDouble((Double) values[i]);
+                    break;
+                case TYPE_MAP:
+                    arr.pushMap(createMap((Snapshot) values[i]));
+                    break;
+                case TYPE_ARRAY:
+                    arr.pushArray(createArray((Snapshot) values[i]));
+                    break;
+                default:
+                    arr.pushNull();
+                    break;
+            }
+        }
+
+        return arr;
+    }
+}
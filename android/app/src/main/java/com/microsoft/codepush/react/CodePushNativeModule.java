@@ -19,12 +19,8 @@ import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.modules.core.ChoreographerCompat;
 import com.facebook.react.modules.core.DeviceEventManagerModule;
-import com.facebook.react.modules.core.ReactChoreographer;
 
-import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
@@ -33,6 +29,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class CodePushNativeModule extends ReactContextBaseJavaModule {
     private String mBinaryContentsHash = null;
@@ -40,10 +37,14 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
     private LifecycleEventListener mLifecycleEventListener = null;
     private int mMinimumBackgroundDuration = 0;
 
+    // Downloads in progress or paused, keyed by package hash.
+    private final ConcurrentHashMap<String, CodePushDownloadHandle> mDownloadHandles = new ConcurrentHashMap<>();
+
     private CodePush mCodePush;
     private SettingsManager mSettingsManager;
     private CodePushTelemetryManager mTelemetryManager;
     private CodePushUpdateManager mUpdateManager;
+    private CodePushMetadataConverter mMetadataConverter;
 
     public CodePushNativeModule(ReactApplicationContext reactContext, CodePush codePush, CodePushUpdateManager codePushUpdateManager, CodePushTelemetryManager codePushTelemetryManager, SettingsManager settingsManager) {
         super(reactContext);
@@ -52,6 +53,7 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
         mSettingsManager = settingsManager;
         mTelemetryManager = codePushTelemetryManager;
         mUpdateManager = codePushUpdateManager;
+        mMetadataConverter = new CodePushMetadataConverter(codePushUpdateManager);
 
         // Initialize module state while we have a reference to the current context.
         mBinaryContentsHash = CodePushUpdateUtils.getHashForBinaryContents(reactContext, mCodePush.isDebugMode());
@@ -119,6 +121,9 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
     private void loadBundle() {
         clearLifecycleEventListener();
         mCodePush.clearDebugCacheIfNeeded();
+
+        // Settings are saved in the background, make sure nothing is lost if the restart kills the process.
+        mSettingsManager.flush();
         try {
             // #1) Get the ReactInstanceManager instance, which is what includes the
             //     logic to reload the current React context.
@@ -201,15 +206,41 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void downloadUpdate(final ReadableMap updatePackage, final boolean notifyProgress, final Promise promise) {
-        AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
+        final String packageHash = CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY);
+        final CodePushDownloadHandle downloadHandle = new CodePushDownloadHandle();
+        if (packageHash != null) {
+            CodePushDownloadHandle previousDownloadHandle = mDownloadHandles.put(packageHash, downloadHandle);
+            if (previousDownloadHandle != null) {
+                // Both downloads would write to the same files.
+                previousDownloadHandle.cancel();
+            }
+        }
+
+        if (CodePushPrefetchJobService.isSupported()) {
+            CodePushPrefetchJobService.cancel(getReactApplicationContext());
+        }
+
+        Runnable downloadTask = new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 try {
                     JSONObject mutableUpdatePackage = CodePushUtils.convertReadableToJsonObject(updatePackage);
                     CodePushUtils.setJSONValueForKey(mutableUpdatePackage, CodePushConstants.BINARY_MODIFIED_TIME_KEY, "" + mCodePush.getBinaryResourcesModifiedTime());
                     mUpdateManager.downloadPackage(mutableUpdatePackage, mCodePush.getAssetsBundleFileName(), new DownloadProgressCallback() {
-                        private boolean hasScheduledNextFrame = false;
-                        private DownloadProgress latestDownloadProgress = null;
+                        // The progress is reported on the download thread and dispatched on the UI queue thread.
+                        private volatile boolean hasScheduledDispatch = false;
+                        private volatile boolean isCompleted = false;
+                        private volatile long latestTotalBytes;
+                        private volatile long latestReceivedBytes;
+                        private final Runnable dispatchRunnable = new Runnable() {
+                            @Override
+                            public void run() {
+                                hasScheduledDispatch = false;
+                                if (!isCompleted) {
+                                    dispatchDownloadProgressEvent(latestTotalBytes, latestReceivedBytes);
+                                }
+                            }
+                        };
 
                         @Override
                         public void call(DownloadProgress downloadProgress) {
@@ -217,44 +248,44 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                                 return;
                             }
 
-                            latestDownloadProgress = downloadProgress;
+                            latestTotalBytes = downloadProgress.getTotalBytes();
+                            latestReceivedBytes = downloadProgress.getReceivedBytes();
                             // If the download is completed, synchronously send the last event.
-                            if (latestDownloadProgress.isCompleted()) {
-                                dispatchDownloadProgressEvent();
+                            if (downloadProgress.isCompleted()) {
+                                isCompleted = true;
+                                dispatchDownloadProgressEvent(latestTotalBytes, latestReceivedBytes);
                                 return;
                             }
 
-                            if (hasScheduledNextFrame) {
+                            // The reporter only calls this once the progress crossed its granularity, and
+                            // an event that is still waiting to be dispatched picks up the latest values.
+                            if (hasScheduledDispatch) {
                                 return;
                             }
 
-                            hasScheduledNextFrame = true;
-                            getReactApplicationContext().runOnUiQueueThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    ReactChoreographer.getInstance().postFrameCallback(ReactChoreographer.CallbackType.TIMERS_EVENTS, new ChoreographerCompat.FrameCallback() {
-                                        @Override
-                                        public void doFrame(long frameTimeNanos) {
-                                            if (!latestDownloadProgress.isCompleted()) {
-                                                dispatchDownloadProgressEvent();
-                                            }
-
-                                            hasScheduledNextFrame = false;
-                                        }
-                                    });
-                                }
-                            });
+                            hasScheduledDispatch = true;
+                            getReactApplicationContext().runOnUiQueueThread(dispatchRunnable);
                         }
 
-                        public void dispatchDownloadProgressEvent() {
+                        public void dispatchDownloadProgressEvent(long totalBytes, long receivedBytes) {
                             getReactApplicationContext()
                                     .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                                    .emit(CodePushConstants.DOWNLOAD_PROGRESS_EVENT_NAME, latestDownloadProgress.createWritableMap());
+                                    .emit(CodePushConstants.DOWNLOAD_PROGRESS_EVENT_NAME, DownloadProgress.createWritableMap(totalBytes, receivedBytes));
+                        }
+                    }, mCodePush.getPublicKey(), downloadHandle);
+
+                    promise.resolve(mMetadataConverter.getPackage(packageHash));
+                } catch (CodePushDownloadInterruptedException e) {
+                    if (!downloadHandle.isCanceled()) {
+                        // The promise stays pending until the download is resumed and completes.
+                        if (!downloadHandle.setPausedTask(this)) {
+                            mCodePush.getTaskExecutor().getDownloadExecutor().execute(this);
                         }
-                    }, mCodePush.getPublicKey());
 
-                    JSONObject newPackage = mUpdateManager.getPackage(CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY));
-                    promise.resolve(CodePushUtils.convertJsonObjectToWritable(newPackage));
+                        return;
+                    }
+
+                    promise.reject(e);
                 } catch (IOException e) {
                     e.printStackTrace();
                     promise.reject(e);
@@ -264,11 +295,106 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                     promise.reject(e);
                 }
 
+                if (packageHash != null) {
+                    mDownloadHandles.remove(packageHash, downloadHandle);
+                }
+            }
+        };
+
+        mCodePush.getTaskExecutor().getDownloadExecutor().execute(downloadTask);
+    }
+
+    // Stops the download of the package and discards what was received so far. Resolves to whether
+    // such a download was in progress.
+    @ReactMethod
+    public void cancelDownload(String packageHash, Promise promise) {
+        CodePushDownloadHandle downloadHandle = mDownloadHandles.get(packageHash);
+        if (downloadHandle == null) {
+            promise.resolve(false);
+            return;
+        }
+
+        downloadHandle.cancel();
+        Runnable pausedTask = downloadHandle.resume();
+        if (pausedTask != null) {
+            // Lets the paused download settle its promise.
+            mCodePush.getTaskExecutor().getDownloadExecutor().execute(pausedTask);
+        }
+
+        promise.resolve(true);
+    }
+
+    // Stops the download of the package but keeps what was received so far, so that resumeDownload
+    // continues from there. Streaming and segmented downloads can't be resumed, so they start over.
+    // Resolves to whether such a download was in progress.
+    @ReactMethod
+    public void pauseDownload(String packageHash, Promise promise) {
+        CodePushDownloadHandle downloadHandle = mDownloadHandles.get(packageHash);
+        if (downloadHandle == null) {
+            promise.resolve(false);
+            return;
+        }
+
+        downloadHandle.pause();
+        promise.resolve(true);
+    }
+
+    @ReactMethod
+    public void resumeDownload(String packageHash, Promise promise) {
+        CodePushDownloadHandle downloadHandle = mDownloadHandles.get(packageHash);
+        if (downloadHandle == null) {
+            promise.resolve(false);
+            return;
+        }
+
+        Runnable pausedTask = downloadHandle.resume();
+        if (pausedTask != null) {
+            mCodePush.getTaskExecutor().getDownloadExecutor().execute(pausedTask);
+        }
+
+        promise.resolve(true);
+    }
+
+    // Schedules the update to be downloaded in the background once the device meets the given
+    // conditions, so that downloadUpdate can use it right away. Resolves to whether it was scheduled.
+    @ReactMethod
+    public void prefetchUpdate(final ReadableMap updatePackage, final ReadableMap options, final Promise promise) {
+        if (!CodePushPrefetchJobService.isSupported()) {
+            promise.resolve(false);
+            return;
+        }
+
+        AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                JSONObject mutableUpdatePackage = CodePushUtils.convertReadableToJsonObject(updatePackage);
+                CodePushUtils.setJSONValueForKey(mutableUpdatePackage, CodePushConstants.BINARY_MODIFIED_TIME_KEY, "" + mCodePush.getBinaryResourcesModifiedTime());
+                try {
+                    mUpdateManager.savePrefetchRequest(mutableUpdatePackage, mCodePush.getAssetsBundleFileName(), mCodePush.getPublicKey());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    promise.reject(e);
+                    return null;
+                }
+
+                boolean isScheduled = CodePushPrefetchJobService.schedule(getReactApplicationContext(),
+                        getBooleanOption(options, "requiresUnmeteredNetwork", true),
+                        getBooleanOption(options, "requiresCharging", false),
+                        getBooleanOption(options, "requiresDeviceIdle", false));
+                promise.resolve(isScheduled);
                 return null;
             }
         };
 
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        asyncTask.executeOnExecutor(mCodePush.getTaskExecutor().getMetadataExecutor());
+    }
+
+    private static boolean getBooleanOption(ReadableMap options, String key, boolean defaultValue) {
+        if (options == null || !options.hasKey(key) || options.isNull(key)) {
+            return defaultValue;
+        }
+
+        return options.getBoolean(key);
     }
 
     @ReactMethod
@@ -292,19 +418,16 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
         AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
-                JSONObject currentPackage = mUpdateManager.getCurrentPackage();
+                // The package folders are named after the hashes of their packages.
+                String currentHash = mUpdateManager.getCurrentPackageHash();
+                WritableMap currentPackage = mMetadataConverter.getPackage(currentHash);
 
                 if (currentPackage == null) {
                     promise.resolve(null);
                     return null;
                 }
 
-                Boolean currentUpdateIsPending = false;
-
-                if (currentPackage.has(CodePushConstants.PACKAGE_HASH_KEY)) {
-                    String currentHash = currentPackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
-                    currentUpdateIsPending = mSettingsManager.isPendingUpdate(currentHash);
-                }
+                Boolean currentUpdateIsPending = mSettingsManager.isPendingUpdate(currentHash);
 
                 if (updateState == CodePushUpdateState.PENDING.getValue() && !currentUpdateIsPending) {
                     // The caller wanted a pending update
@@ -313,14 +436,7 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                 } else if (updateState == CodePushUpdateState.RUNNING.getValue() && currentUpdateIsPending) {
                     // The caller wants the running update, but the current
                     // one is pending, so we need to grab the previous.
-                    JSONObject previousPackage = mUpdateManager.getPreviousPackage();
-
-                    if (previousPackage == null) {
-                        promise.resolve(null);
-                        return null;
-                    }
-
-                    promise.resolve(CodePushUtils.convertJsonObjectToWritable(previousPackage));
+                    promise.resolve(mMetadataConverter.getPreviousPackage());
                 } else {
                     // The current package satisfies the request:
                     // 1) Caller wanted a pending, and there is a pending update
@@ -330,19 +446,19 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
                         // This only matters in Debug builds. Since we do not clear "outdated" updates,
                         // we need to indicate to the JS side that somehow we have a current update on
                         // disk that is not actually running.
-                        CodePushUtils.setJSONValueForKey(currentPackage, "_isDebugOnly", true);
+                        currentPackage.putBoolean("_isDebugOnly", true);
                     }
 
                     // Enable differentiating pending vs. non-pending updates
-                    CodePushUtils.setJSONValueForKey(currentPackage, "isPending", currentUpdateIsPending);
-                    promise.resolve(CodePushUtils.convertJsonObjectToWritable(currentPackage));
+                    currentPackage.putBoolean("isPending", currentUpdateIsPending);
+                    promise.resolve(currentPackage);
                 }
 
                 return null;
             }
         };
 
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        asyncTask.executeOnExecutor(mCodePush.getTaskExecutor().getMetadataExecutor());
     }
 
     @ReactMethod
@@ -352,24 +468,19 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
             protected Void doInBackground(Void... params) {
                 if (mCodePush.needToReportRollback()) {
                     mCodePush.setNeedToReportRollback(false);
-                    JSONArray failedUpdates = mSettingsManager.getFailedUpdates();
-                    if (failedUpdates != null && failedUpdates.length() > 0) {
-                        try {
-                            JSONObject lastFailedPackageJSON = failedUpdates.getJSONObject(failedUpdates.length() - 1);
-                            WritableMap lastFailedPackage = CodePushUtils.convertJsonObjectToWritable(lastFailedPackageJSON);
-                            WritableMap failedStatusReport = mTelemetryManager.getRollbackReport(lastFailedPackage);
-                            if (failedStatusReport != null) {
-                                promise.resolve(failedStatusReport);
-                                return null;
-                            }
-                        } catch (JSONException e) {
-                            throw new CodePushUnknownException("Unable to read failed updates information stored in SharedPreferences.", e);
+                    JSONObject lastFailedPackageJSON = mSettingsManager.getLastFailedUpdate();
+                    if (lastFailedPackageJSON != null) {
+                        WritableMap lastFailedPackage = CodePushUtils.convertJsonObjectToWritable(lastFailedPackageJSON);
+                        WritableMap failedStatusReport = mTelemetryManager.getRollbackReport(lastFailedPackage);
+                        if (failedStatusReport != null) {
+                            promise.resolve(failedStatusReport);
+                            return null;
                         }
                     }
                 } else if (mCodePush.didUpdate()) {
-                    JSONObject currentPackage = mUpdateManager.getCurrentPackage();
+                    WritableMap currentPackage = mMetadataConverter.getCurrentPackage();
                     if (currentPackage != null) {
-                        WritableMap newPackageStatusReport = mTelemetryManager.getUpdateReport(CodePushUtils.convertJsonObjectToWritable(currentPackage));
+                        WritableMap newPackageStatusReport = mTelemetryManager.getUpdateReport(currentPackage);
                         if (newPackageStatusReport != null) {
                             promise.resolve(newPackageStatusReport);
                             return null;
@@ -394,7 +505,7 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
             }
         };
 
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        asyncTask.executeOnExecutor(mCodePush.getTaskExecutor().getMetadataExecutor());
     }
 
     @ReactMethod
@@ -402,14 +513,8 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
         AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
-                mUpdateManager.installPackage(CodePushUtils.convertReadableToJsonObject(updatePackage), mSettingsManager.isPendingUpdate(null));
-
-                String pendingHash = CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY);
-                if (pendingHash == null) {
-                    throw new CodePushUnknownException("Update package to be installed has no hash.");
-                } else {
-                    mSettingsManager.savePendingUpdate(pendingHash, /* isLoading */false);
-                }
+                mCodePush.installPackage(CodePushUtils.convertReadableToJsonObject(updatePackage));
+                mCodePush.warmUpCurrentPackage();
 
                 if (installMode == CodePushInstallMode.ON_NEXT_RESUME.getValue() ||
                     // We also add the resume listener if the installMode is IMMEDIATE, because
@@ -477,7 +582,7 @@ public class CodePushNativeModule extends ReactContextBaseJavaModule {
             }
         };
 
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        asyncTask.executeOnExecutor(mCodePush.getTaskExecutor().getIoExecutor());
     }
 
     @ReactMethod
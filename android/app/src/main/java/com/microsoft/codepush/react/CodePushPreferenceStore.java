@@ -0,0 +1,103 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Mirrors the CodePush SharedPreferences in memory. Reads never touch the disk after the first one,
+// and writes are persisted on a background thread, where changes made in quick succession are
+// committed together. Call flush() wherever the changes must be on disk before continuing.
+public class CodePushPreferenceStore {
+
+    private static final long WRITE_THREAD_KEEP_ALIVE_SECONDS = 5;
+
+    private SharedPreferences mSettings;
+
+    // Values read or written so far, where a null value means that the key is not set, and the
+    // changes which have not been committed yet. Guarded by this.
+    private final Map<String, String> mValues = new HashMap<>();
+    private final Map<String, String> mPendingWrites = new HashMap<>();
+    private boolean mIsWriteScheduled = false;
+
+    // A single thread, so that the commits happen in the order the changes were made.
+    private final ExecutorService mWriteExecutor = new ThreadPoolExecutor(0, 1,
+            WRITE_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingChanges();
+        }
+    };
+
+    public CodePushPreferenceStore(Context applicationContext) {
+        mSettings = applicationContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+    }
+
+    public synchronized String getString(String key) {
+        if (!mValues.containsKey(key)) {
+            mValues.put(key, mSettings.getString(key, null));
+        }
+
+        return mValues.get(key);
+    }
+
+    // Sets the value of the key, or removes it if the value is null.
+    public synchronized void putString(String key, String value) {
+        mValues.put(key, value);
+        mPendingWrites.put(key, value);
+        if (!mIsWriteScheduled) {
+            mIsWriteScheduled = true;
+            mWriteExecutor.execute(mWriteRunnable);
+        }
+    }
+
+    public void remove(String key) {
+        putString(key, null);
+    }
+
+    // Blocks until every change made so far has been committed to disk.
+    public void flush() {
+        try {
+            mWriteExecutor.submit(mWriteRunnable).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CodePushUnknownException("Interrupted while saving CodePush settings.", e);
+        } catch (ExecutionException e) {
+            throw new CodePushUnknownException("Unable to save CodePush settings.", e.getCause());
+        }
+    }
+
+    private void writePendingChanges() {
+        Map<String, String> changes;
+        synchronized (this) {
+            mIsWriteScheduled = false;
+            if (mPendingWrites.isEmpty()) {
+                return;
+            }
+
+            changes = new HashMap<>(mPendingWrites);
+            mPendingWrites.clear();
+        }
+
+        SharedPreferences.Editor editor = mSettings.edit();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                editor.remove(change.getKey());
+            } else {
+                editor.putString(change.getKey(), change.getValue());
+            }
+        }
+
+        if (!editor.commit()) {
+            CodePushUtils.log("Unable to save CodePush settings.");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.microsoft.codepush.react;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+import java.io.IOException;
+
+// Downloads, extracts and verifies an update in the background, while the device meets the
+// conditions it was scheduled with, so that it is ready to be installed once the app asks for it.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CodePushPrefetchJobService extends JobService {
+
+    private final CodePushTaskExecutor mTaskExecutor = new CodePushTaskExecutor();
+    private CodePushDownloadHandle mDownloadHandle;
+
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    // Replaces any previously scheduled prefetch. The update to download must have been saved with
+    // CodePushUpdateManager.savePrefetchRequest beforehand.
+    public static boolean schedule(Context context, boolean requiresUnmeteredNetwork, boolean requiresCharging, boolean requiresDeviceIdle) {
+        JobInfo jobInfo = new JobInfo.Builder(CodePushConstants.PREFETCH_JOB_ID, new ComponentName(context, CodePushPrefetchJobService.class))
+                .setRequiredNetworkType(requiresUnmeteredNetwork ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(requiresCharging)
+                .setRequiresDeviceIdle(requiresDeviceIdle)
+                .build();
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        return jobScheduler.schedule(jobInfo) == JobScheduler.RESULT_SUCCESS;
+    }
+
+    // Any download consumes or discards the prefetch request, so the job is no longer needed once one
+    // starts. Stopping a running job also lets that download go ahead without waiting for it.
+    public static void cancel(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.cancel(CodePushConstants.PREFETCH_JOB_ID);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CodePushDownloadHandle downloadHandle = new CodePushDownloadHandle();
+        synchronized (this) {
+            mDownloadHandle = downloadHandle;
+        }
+
+        mTaskExecutor.getDownloadExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                jobFinished(params, prefetch(downloadHandle));
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The conditions are no longer met. Pausing keeps what was downloaded so far, so that the
+        // rescheduled job continues from there, unless it was a streaming or segmented download.
+        synchronized (this) {
+            if (mDownloadHandle != null) {
+                mDownloadHandle.pause();
+            }
+        }
+
+        return true;
+    }
+
+    // Returns whether the job needs to run again.
+    private boolean prefetch(CodePushDownloadHandle downloadHandle) {
+        CodePushUpdateManager updateManager = CodePush.getCurrentUpdateManager();
+        if (updateManager == null) {
+            // The app was started for this job and hasn't created its CodePush instance. A custom
+            // HttpTransport can't be restored, so the update is downloaded with the default one.
+            updateManager = new CodePushUpdateManager(getFilesDir().getAbsolutePath());
+            updateManager.applyPrefetchRequestOptions();
+        }
+
+        try {
+            updateManager.prefetchPackage(downloadHandle);
+            return false;
+        } catch (CodePushDownloadInterruptedException e) {
+            return true;
+        } catch (IOException | CodePushUnknownException e) {
+            CodePushUtils.log("Unable to prefetch the update, will retry: " + e.getMessage());
+            return true;
+        } catch (CodePushInvalidUpdateException e) {
+            CodePushUtils.log("The prefetched update is invalid: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.microsoft.codepush.react;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Downloads a package as several byte ranges over concurrent connections, which makes better use of
+// high-latency links than a single TCP stream. The ranges are written in place into a file that is
+// preallocated to the size of the package.
+class CodePushSegmentedDownload {
+
+    private static final int SEGMENT_COUNT = 4;
+
+    // Below this size the cost of the additional connections outweighs the gain.
+    static final long MIN_SEGMENTED_DOWNLOAD_SIZE = 4 * 1024 * 1024;
+
+    private CodePushHttpTransport mHttpTransport;
+    private String mDownloadUrl;
+    private String mEtag;
+    private File mDownloadFile;
+    private long mTotalBytes;
+    private DownloadProgressReporter mProgressReporter;
+    private CodePushDownloadHandle mDownloadHandle;
+    private long mReceivedBytes = 0;
+
+    CodePushSegmentedDownload(CodePushHttpTransport httpTransport, String downloadUrl, String etag, File downloadFile, long totalBytes,
+                              DownloadProgressReporter progressReporter, CodePushDownloadHandle downloadHandle) {
+        mHttpTransport = httpTransport;
+        mDownloadUrl = downloadUrl;
+        mEtag = etag;
+        mDownloadFile = downloadFile;
+        mTotalBytes = totalBytes;
+        mProgressReporter = progressReporter;
+        mDownloadHandle = downloadHandle;
+    }
+
+    // Returns the total size of the package if the response to a "Range: bytes=0-" request shows
+    // that the server serves byte ranges of it, or -1 otherwise.
+    static long getRangeTotalBytes(CodePushHttpResponse response) {
+        if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+            return -1;
+        }
+
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes 0-")) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            // The total size is unknown ("*").
+            return -1;
+        }
+    }
+
+    // Downloads the whole package. The first segment is read from firstResponse, which must be
+    // the response to a "Range: bytes=0-" request.
+    void download(final CodePushHttpResponse firstResponse) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mDownloadFile, "rw");
+        try {
+            randomAccessFile.setLength(mTotalBytes);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        long segmentSize = (mTotalBytes + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        ExecutorService executorService = Executors.newFixedThreadPool(SEGMENT_COUNT - 1);
+        List<Future<Void>> segmentFutures = new ArrayList<>();
+        try {
+            for (int i = 1; i < SEGMENT_COUNT; i++) {
+                final long start = i * segmentSize;
+                final long end = Math.min(start + segmentSize, mTotalBytes) - 1;
+                if (start > end) {
+                    break;
+                }
+
+                segmentFutures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        downloadSegment(null, start, end);
+                        return null;
+                    }
+                }));
+            }
+
+            downloadSegment(firstResponse, 0, Math.min(segmentSize, mTotalBytes) - 1);
+            for (Future<Void> segmentFuture : segmentFutures) {
+                segmentFuture.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CodePushUnknownException("Interrupted while downloading the update.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CodePushUnknownException("Error downloading the update.", cause);
+        } finally {
+            // Stops the remaining segments if one of them failed.
+            executorService.shutdownNow();
+            for (Future<Void> segmentFuture : segmentFutures) {
+                segmentFuture.cancel(true);
+            }
+        }
+    }
+
+    private void downloadSegment(CodePushHttpResponse response, long start, long end) throws IOException {
+        if (response == null) {
+            mDownloadHandle.throwIfInterrupted();
+            CodePushHttpRequest request = new CodePushHttpRequest("GET", mDownloadUrl)
+                    .setHeader("Accept-Encoding", "identity")
+                    .setHeader("Range", "bytes=" + start + "-" + end);
+            if (mEtag != null) {
+                request.setHeader("If-Range", mEtag);
+            }
+
+            response = mHttpTransport.execute(request);
+        }
+
+        mDownloadHandle.addResponse(response);
+        RandomAccessFile randomAccessFile = null;
+        try {
+            String contentRange = response.getHeader("Content-Range");
+            if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL
+                    || contentRange == null || !contentRange.startsWith("bytes " + start + "-")) {
+                // The package changed since the first request, or the server stopped serving ranges.
+                throw new IOException("Unexpected response to the request for bytes " + start + "-" + end + ".");
+            }
+
+            InputStream bin = new BufferedInputStream(response.getBody());
+            randomAccessFile = new RandomAccessFile(mDownloadFile, "rw");
+            randomAccessFile.seek(start);
+            byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+            long remainingBytes = end - start + 1;
+            while (remainingBytes > 0) {
+                mDownloadHandle.throwIfInterrupted();
+                int numBytesRead = bin.read(data, 0, (int) Math.min(data.length, remainingBytes));
+                if (numBytesRead < 0) {
+                    throw new IOException("The connection closed before bytes " + start + "-" + end + " were received.");
+                }
+
+                randomAccessFile.write(data, 0, numBytesRead);
+                remainingBytes -= numBytesRead;
+                onBytesReceived(numBytesRead);
+            }
+
+            // Reaching the end of the body lets the transport reuse the connection. The response to the
+            // first request extends to the end of the package, so that one is dropped instead.
+            if (contentRange.startsWith("bytes " + start + "-" + end + "/")) {
+                bin.read();
+            }
+        } catch (IOException e) {
+            // Pausing or canceling closes the connections, which fails the reads in progress.
+            mDownloadHandle.throwIfInterrupted();
+            throw e;
+        } finally {
+            mDownloadHandle.removeResponse(response);
+            response.close();
+            try {
+                if (randomAccessFile != null) randomAccessFile.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    // The progress reporter isn't meant to be called from several threads at once.
+    private synchronized void onBytesReceived(long numBytesRead) {
+        mReceivedBytes += numBytesRead;
+        mProgressReporter.report(mTotalBytes, mReceivedBytes);
+    }
+}
@@ -0,0 +1,70 @@
+package com.microsoft.codepush.react;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs the background work of CodePush on its own threads instead of the pool shared with the app.
+// Quick metadata queries, downloads (which also extract and verify updates) and other long I/O jobs,
+// such as installing updates, have separate lanes, so that neither a query nor an install waits for
+// a download to finish. The download and I/O lanes are bounded and run at background priority so
+// that they don't starve the app's own work.
+public class CodePushTaskExecutor {
+
+    private static final int METADATA_THREAD_COUNT = 1;
+    private static final int DOWNLOAD_THREAD_COUNT = 1;
+    private static final int IO_THREAD_COUNT = 2;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mMetadataExecutor;
+    private final ThreadPoolExecutor mDownloadExecutor;
+    private final ThreadPoolExecutor mIoExecutor;
+
+    public CodePushTaskExecutor() {
+        mMetadataExecutor = createExecutor("CodePush Metadata", METADATA_THREAD_COUNT, Process.THREAD_PRIORITY_DEFAULT);
+        mDownloadExecutor = createExecutor("CodePush Download", DOWNLOAD_THREAD_COUNT, Process.THREAD_PRIORITY_BACKGROUND);
+        mIoExecutor = createExecutor("CodePush IO", IO_THREAD_COUNT, Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    // Runs tasks one at a time, in the order they were submitted.
+    public Executor getMetadataExecutor() {
+        return mMetadataExecutor;
+    }
+
+    // Runs downloads one at a time, since they can't run concurrently anyway, so that a download that
+    // waits for another one to finish queues up here instead of holding a thread of the I/O lane.
+    public Executor getDownloadExecutor() {
+        return mDownloadExecutor;
+    }
+
+    public Executor getIoExecutor() {
+        return mIoExecutor;
+    }
+
+    private static ThreadPoolExecutor createExecutor(final String name, int threadCount, final int threadPriority) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(threadPriority);
+                        runnable.run();
+                    }
+                }, name + " #" + mThreadCount.getAndIncrement());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,7 +1,6 @@
 package com.microsoft.codepush.react;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableMap;
@@ -11,7 +10,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 public class CodePushTelemetryManager {
-    private SharedPreferences mSettings;
+    private CodePushPreferenceStore mSettings;
     private final String APP_VERSION_KEY = "appVersion";
     private final String DEPLOYMENT_FAILED_STATUS = "DeploymentFailed";
     private final String DEPLOYMENT_KEY_KEY = "deploymentKey";
@@ -25,7 +24,11 @@ public class CodePushTelemetryManager {
     private final String STATUS_KEY = "status";
 
     public CodePushTelemetryManager(Context applicationContext) {
-        mSettings = applicationContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+        this(new CodePushPreferenceStore(applicationContext));
+    }
+
+    public CodePushTelemetryManager(CodePushPreferenceStore preferenceStore) {
+        mSettings = preferenceStore;
     }
 
     public WritableMap getBinaryUpdateReport(String appVersion) {
@@ -55,7 +58,7 @@ public class CodePushTelemetryManager {
     }
 
     public WritableMap getRetryStatusReport() {
-        String retryStatusReportString = mSettings.getString(RETRY_DEPLOYMENT_REPORT_KEY, null);
+        String retryStatusReportString = mSettings.getString(RETRY_DEPLOYMENT_REPORT_KEY);
         if (retryStatusReportString != null) {
             clearRetryStatusReport();
             try {
@@ -124,11 +127,11 @@ public class CodePushTelemetryManager {
 
     public void saveStatusReportForRetry(ReadableMap statusReport) {
         JSONObject statusReportJSON = CodePushUtils.convertReadableToJsonObject(statusReport);
-        mSettings.edit().putString(RETRY_DEPLOYMENT_REPORT_KEY, statusReportJSON.toString()).commit();
+        mSettings.putString(RETRY_DEPLOYMENT_REPORT_KEY, statusReportJSON.toString());
     }
 
     private void clearRetryStatusReport() {
-        mSettings.edit().remove(RETRY_DEPLOYMENT_REPORT_KEY).commit();
+        mSettings.remove(RETRY_DEPLOYMENT_REPORT_KEY);
     }
 
     private String getDeploymentKeyFromStatusReportIdentifier(String statusReportIdentifier) {
@@ -153,7 +156,7 @@ public class CodePushTelemetryManager {
     }
 
     private String getPreviousStatusReportIdentifier() {
-        return mSettings.getString(LAST_DEPLOYMENT_REPORT_KEY, null);
+        return mSettings.getString(LAST_DEPLOYMENT_REPORT_KEY);
     }
 
     private String getVersionLabelFromStatusReportIdentifier(String statusReportIdentifier) {
@@ -170,6 +173,6 @@ public class CodePushTelemetryManager {
     }
 
     private void saveStatusReportedForIdentifier(String appVersionOrPackageIdentifier) {
-        mSettings.edit().putString(LAST_DEPLOYMENT_REPORT_KEY, appVersionOrPackageIdentifier).commit();
+        mSettings.putString(LAST_DEPLOYMENT_REPORT_KEY, appVersionOrPackageIdentifier);
     }
 }
@@ -0,0 +1,81 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+
+// Makes install and rollback transitions crash-safe. A transition is written to the journal before
+// any of its changes, so that if the process dies halfway through, the remaining changes are
+// applied on the next start instead of leaving the status, the settings and the package folders
+// inconsistent with each other.
+class CodePushUpdateJournal {
+
+    private CodePushUpdateManager mUpdateManager;
+    private SettingsManager mSettingsManager;
+
+    CodePushUpdateJournal(CodePushUpdateManager updateManager, SettingsManager settingsManager) {
+        mUpdateManager = updateManager;
+        mSettingsManager = settingsManager;
+    }
+
+    void commit(JSONObject transition) {
+        String journalFilePath = mUpdateManager.getJournalFilePath();
+        try {
+            new File(journalFilePath).getParentFile().mkdirs();
+            CodePushUtils.writeJsonToFile(transition, journalFilePath);
+        } catch (IOException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Unable to write the update journal.", e);
+        }
+
+        apply(transition);
+        FileUtils.deleteFileAtPathSilently(journalFilePath);
+    }
+
+    // Completes the transition that was in progress when the process last stopped, if any.
+    void recover() {
+        String journalFilePath = mUpdateManager.getJournalFilePath();
+        if (!FileUtils.fileAtPathExists(journalFilePath)) {
+            return;
+        }
+
+        JSONObject transition;
+        try {
+            transition = CodePushUtils.getJsonObjectFromFile(journalFilePath);
+        } catch (IOException | CodePushMalformedDataException e) {
+            // The journal is written atomically, so it can only be unreadable if it was damaged
+            // after the fact, in which case none of its changes can be trusted.
+            CodePushUtils.log("Discarding unreadable update journal: " + e.getMessage());
+            FileUtils.deleteFileAtPathSilently(journalFilePath);
+            return;
+        }
+
+        CodePushUtils.log("Completing interrupted update transition.");
+        apply(transition);
+        FileUtils.deleteFileAtPathSilently(journalFilePath);
+    }
+
+    private void apply(JSONObject transition) {
+        mUpdateManager.updateTransitionStatus(transition);
+
+        JSONObject failedUpdate = transition.optJSONObject(CodePushConstants.TRANSITION_FAILED_UPDATE_KEY);
+        if (failedUpdate != null && !mSettingsManager.isFailedHash(failedUpdate.optString(CodePushConstants.PACKAGE_HASH_KEY, null))) {
+            mSettingsManager.saveFailedUpdate(failedUpdate);
+        }
+
+        if (transition.optBoolean(CodePushConstants.TRANSITION_REMOVE_PENDING_UPDATE_KEY, false)) {
+            mSettingsManager.removePendingUpdate();
+        }
+
+        String pendingUpdateHash = transition.optString(CodePushConstants.TRANSITION_PENDING_UPDATE_HASH_KEY, null);
+        if (pendingUpdateHash != null) {
+            mSettingsManager.savePendingUpdate(pendingUpdateHash, /* isLoading */false);
+        }
+
+        // The journal is removed once the folders are deleted, so the settings must be on disk by then.
+        mSettingsManager.flush();
+
+        mUpdateManager.removeTransitionPackages(transition);
+    }
+}
@@ -1,25 +1,130 @@
 package com.microsoft.codepush.react;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class CodePushUpdateManager {
 
+    // Downloads share download.zip and the unzipped folder, including those made in the background
+    // by other instances, so only one can run at a time.
+    private static final Object sDownloadLock = new Object();
+
+    // Guards prefetch.json on its own, so that saving a prefetch request doesn't wait for a download.
+    // When both are needed, sDownloadLock is taken first.
+    private static final Object sPrefetchRequestLock = new Object();
+
     private String mDocumentsDirectory;
+    private boolean mIsStreamingExtractionEnabled = false;
+    private boolean mIsSegmentedDownloadEnabled = false;
+    private boolean mIsBlobStoreEnabled = false;
+    private CodePushHttpTransport mHttpTransport = new CodePushDefaultHttpTransport();
+    private long mDownloadProgressByteGranularity = CodePushConstants.DEFAULT_DOWNLOAD_PROGRESS_BYTE_GRANULARITY;
+    private int mDownloadProgressPercentGranularity = CodePushConstants.DEFAULT_DOWNLOAD_PROGRESS_PERCENT_GRANULARITY;
+    private long mDownloadProgressTimeGranularityMs = CodePushConstants.DEFAULT_DOWNLOAD_PROGRESS_TIME_GRANULARITY_MS;
+
+    // Parsed contents of the status file and of the metadata file of every package folder read so far,
+    // keyed by their path. They are updated whenever this class writes or deletes them, so the files
+    // are only read once per process. They are shared by all instances, since a prefetch job can write
+    // packages through its own instance while the one of CodePush reads them. Guarded by sMetadataLock.
+    private static final Object sMetadataLock = new Object();
+    private static String sCurrentPackageInfoPath;
+    private static JSONObject sCurrentPackageInfo;
+    private static final Map<String, JSONObject> sPackageMetadataCache = new HashMap<>();
+    private static String sBootRecordPath;
+    private static JSONObject sBootRecord;
+
+    // Incremented whenever a metadata file of a package folder is written or deleted, by any instance,
+    // so that callers can tell whether what they derived from package metadata is still current.
+    private static final AtomicLong sPackageMetadataVersion = new AtomicLong();
 
     public CodePushUpdateManager(String documentsDirectory) {
         mDocumentsDirectory = documentsDirectory;
     }
 
+    // When enabled, zip packages are inflated while they are being downloaded instead of being
+    // written to download.zip first. Such downloads can't be resumed if they are interrupted.
+    public void setStreamingExtractionEnabled(boolean isStreamingExtractionEnabled) {
+        mIsStreamingExtractionEnabled = isStreamingExtractionEnabled;
+    }
+
+    // When enabled, large packages are downloaded as several byte ranges over concurrent connections
+    // if the server supports range requests. Such downloads can't be resumed if they are interrupted.
+    public void setSegmentedDownloadEnabled(boolean isSegmentedDownloadEnabled) {
+        mIsSegmentedDownloadEnabled = isSegmentedDownloadEnabled;
+    }
+
+    // Sets the transport that updates are downloaded with, or restores the default one if null.
+    public void setHttpTransport(CodePushHttpTransport httpTransport) {
+        mHttpTransport = httpTransport == null ? new CodePushDefaultHttpTransport() : httpTransport;
+    }
+
+    // Download progress is reported once it has advanced by at least this many bytes, percent of the
+    // package size and milliseconds since it was last reported. A granularity of 0 disables that condition.
+    public void setDownloadProgressGranularity(long byteGranularity, int percentGranularity, long timeGranularityMs) {
+        mDownloadProgressByteGranularity = byteGranularity;
+        mDownloadProgressPercentGranularity = percentGranularity;
+        mDownloadProgressTimeGranularityMs = timeGranularityMs;
+    }
+
+    // When enabled, files are shared between package folders through hard links into a
+    // content-addressable store instead of every package keeping its own copy.
+    public void setBlobStoreEnabled(boolean isBlobStoreEnabled) {
+        if (isBlobStoreEnabled && !CodePushBlobStore.isSupported()) {
+            CodePushUtils.log("Sharing files between packages requires hard link support, which is not available on this device.");
+            isBlobStoreEnabled = false;
+        }
+
+        mIsBlobStoreEnabled = isBlobStoreEnabled;
+    }
+
+    private String getBlobStorePath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.BLOB_STORE_FOLDER_NAME);
+    }
+
+    private CodePushBlobStore getBlobStore() {
+        if (!mIsBlobStoreEnabled) {
+            return null;
+        }
+
+        return new CodePushBlobStore(getBlobStorePath());
+    }
+
+    // Packages installed while the store was enabled keep linking to it after it is disabled, so their
+    // blobs are still removed once those packages are deleted, until the store is empty.
+    private void removeUnusedBlobs() {
+        String blobStorePath = getBlobStorePath();
+        if (!FileUtils.fileAtPathExists(blobStorePath)) {
+            return;
+        }
+
+        CodePushBlobStore blobStore = new CodePushBlobStore(blobStorePath);
+        blobStore.removeUnusedBlobs();
+        if (!mIsBlobStoreEnabled) {
+            blobStore.deleteIfEmpty();
+        }
+    }
+
     private String getDownloadFilePath() {
         return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.DOWNLOAD_FILE_NAME);
     }
@@ -47,24 +152,184 @@ public class CodePushUpdateManager {
 
     public JSONObject getCurrentPackageInfo() {
         String statusFilePath = getStatusFilePath();
-        if (!FileUtils.fileAtPathExists(statusFilePath)) {
-            return new JSONObject();
-        }
+        synchronized (sMetadataLock) {
+            if (sCurrentPackageInfo == null || !statusFilePath.equals(sCurrentPackageInfoPath)) {
+                JSONObject info;
+                if (!FileUtils.fileAtPathExists(statusFilePath)) {
+                    info = new JSONObject();
+                } else {
+                    try {
+                        info = CodePushUtils.getJsonObjectFromFile(statusFilePath);
+                    } catch (IOException e) {
+                        // Should not happen.
+                        throw new CodePushUnknownException("Error getting current package info", e);
+                    }
+                }
 
-        try {
-            return CodePushUtils.getJsonObjectFromFile(statusFilePath);
-        } catch (IOException e) {
-            // Should not happen.
-            throw new CodePushUnknownException("Error getting current package info", e);
+                sCurrentPackageInfoPath = statusFilePath;
+                sCurrentPackageInfo = info;
+            }
+
+            // Callers modify the returned object, so it must not be the cached one.
+            return copyJsonObject(sCurrentPackageInfo);
         }
     }
 
     public void updateCurrentPackageInfo(JSONObject packageInfo) {
+        String statusFilePath = getStatusFilePath();
+        synchronized (sMetadataLock) {
+            // Removed first, so that if the process dies before it is written again, the next start
+            // falls back to the status file instead of loading the bundle of the old current package.
+            deleteBootRecord();
+            try {
+                CodePushUtils.writeJsonToFile(packageInfo, statusFilePath);
+            } catch (IOException e) {
+                // Should not happen.
+                sCurrentPackageInfo = null;
+                throw new CodePushUnknownException("Error updating current package info", e);
+            }
+
+            sCurrentPackageInfoPath = statusFilePath;
+            sCurrentPackageInfo = copyJsonObject(packageInfo);
+            writeBootRecord();
+        }
+    }
+
+    private String getBootRecordFilePath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.BOOT_RECORD_FILE_NAME);
+    }
+
+    // Returns the boot record of the current package, or null if there is no current package. The
+    // boot record holds the hash, bundle path, binary modified time and app version of the current
+    // package, so that the bundle to load at startup can be chosen by reading a single small file
+    // instead of the status file and the package metadata. If it doesn't exist yet, as after an
+    // upgrade from a version that didn't write it, it is created from those files.
+    public JSONObject getBootRecord() {
+        String bootRecordPath = getBootRecordFilePath();
+        synchronized (sMetadataLock) {
+            if (sBootRecord == null || !bootRecordPath.equals(sBootRecordPath)) {
+                JSONObject bootRecord = null;
+                if (FileUtils.fileAtPathExists(bootRecordPath)) {
+                    try {
+                        bootRecord = CodePushUtils.getJsonObjectFromFile(bootRecordPath);
+                    } catch (IOException | CodePushMalformedDataException e) {
+                        CodePushUtils.log("Discarding unreadable boot record: " + e.getMessage());
+                    }
+                }
+
+                if (bootRecord == null) {
+                    return writeBootRecord();
+                }
+
+                sBootRecordPath = bootRecordPath;
+                sBootRecord = bootRecord;
+            }
+
+            return copyJsonObject(sBootRecord);
+        }
+    }
+
+    // Returns the path of the JS bundle of the package the boot record was written for.
+    public String getBootRecordBundlePath(JSONObject bootRecord, String bundleFileName) {
+        String packageFolder = getPackageFolderPath(bootRecord.optString(CodePushConstants.PACKAGE_HASH_KEY));
+        String relativeBundlePath = bootRecord.optString(CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, null);
+        if (relativeBundlePath == null) {
+            return CodePushUtils.appendPathComponent(packageFolder, bundleFileName);
+        } else {
+            return CodePushUtils.appendPathComponent(packageFolder, relativeBundlePath);
+        }
+    }
+
+    // Brings the bundle and then the largest assets of the package the boot record was written for
+    // into the page cache, as long as they fit into byteBudget, so that loading them after a restart
+    // doesn't wait for storage. Returns the number of bytes brought in.
+    public long warmUpPackage(JSONObject bootRecord, String bundleFileName, long byteBudget) throws IOException {
+        File bundleFile = new File(getBootRecordBundlePath(bootRecord, bundleFileName));
+        List<File> assetFiles = new ArrayList<>();
+        collectAssetFiles(new File(getPackageFolderPath(bootRecord.optString(CodePushConstants.PACKAGE_HASH_KEY))), bundleFile, assetFiles);
+        Collections.sort(assetFiles, new Comparator<File>() {
+            @Override
+            public int compare(File file1, File file2) {
+                long length1 = file1.length();
+                long length2 = file2.length();
+                return length1 > length2 ? -1 : (length1 == length2 ? 0 : 1);
+            }
+        });
+
+        long loadedBytes = 0;
+        if (bundleFile.length() <= byteBudget) {
+            loadedBytes += FileUtils.loadIntoPageCache(bundleFile);
+        }
+
+        for (int i = 0; i < assetFiles.size() && i < CodePushConstants.WARM_UP_MAX_ASSET_COUNT; i++) {
+            File assetFile = assetFiles.get(i);
+            if (loadedBytes + assetFile.length() <= byteBudget) {
+                loadedBytes += FileUtils.loadIntoPageCache(assetFile);
+            }
+        }
+
+        return loadedBytes;
+    }
+
+    private static void collectAssetFiles(File folder, File bundleFile, List<File> assetFiles) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectAssetFiles(file, bundleFile, assetFiles);
+            } else if (!file.equals(bundleFile) && !file.getName().equals(CodePushConstants.PACKAGE_FILE_NAME)
+                    && !file.getName().equals(CodePushConstants.BUNDLE_JWT_FILE)
+                    && !file.getName().equals(CodePushConstants.FILE_HASHES_FILE_NAME)) {
+                assetFiles.add(file);
+            }
+        }
+    }
+
+    // Writes the boot record of the current package and returns a copy of it, or removes the boot
+    // record and returns null if there is no current package. Must be called with sMetadataLock held.
+    private JSONObject writeBootRecord() {
+        JSONObject currentPackage = getCurrentPackage();
+        if (currentPackage == null) {
+            deleteBootRecord();
+            return null;
+        }
+
+        JSONObject bootRecord = new JSONObject();
+        CodePushUtils.setJSONValueForKey(bootRecord, CodePushConstants.PACKAGE_HASH_KEY, getCurrentPackageHash());
+        CodePushUtils.setJSONValueForKey(bootRecord, CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, currentPackage.opt(CodePushConstants.RELATIVE_BUNDLE_PATH_KEY));
+        CodePushUtils.setJSONValueForKey(bootRecord, CodePushConstants.BINARY_MODIFIED_TIME_KEY, currentPackage.opt(CodePushConstants.BINARY_MODIFIED_TIME_KEY));
+        CodePushUtils.setJSONValueForKey(bootRecord, CodePushConstants.APP_VERSION_KEY, currentPackage.opt(CodePushConstants.APP_VERSION_KEY));
+
+        String bootRecordPath = getBootRecordFilePath();
         try {
-            CodePushUtils.writeJsonToFile(packageInfo, getStatusFilePath());
+            CodePushUtils.writeJsonToFile(bootRecord, bootRecordPath);
         } catch (IOException e) {
-            // Should not happen.
-            throw new CodePushUnknownException("Error updating current package info", e);
+            // The boot record only saves reading the other files, so startup still works without it.
+            CodePushUtils.log("Unable to write the boot record: " + e.getMessage());
+        }
+
+        sBootRecordPath = bootRecordPath;
+        sBootRecord = bootRecord;
+        return copyJsonObject(bootRecord);
+    }
+
+    // Must be called with sMetadataLock held.
+    private void deleteBootRecord() {
+        sBootRecord = null;
+        FileUtils.deleteFileAtPathSilently(getBootRecordFilePath());
+    }
+
+    // The boot record is derived from the metadata of the current package, so it is removed when
+    // that changes, and written again from the new metadata the next time it is needed.
+    private void invalidateBootRecordIfCurrent(String folderPath) {
+        synchronized (sMetadataLock) {
+            String currentPackageFolderPath = getCurrentPackageFolderPath();
+            if (currentPackageFolderPath != null && currentPackageFolderPath.equals(folderPath)) {
+                deleteBootRecord();
+            }
         }
     }
 
@@ -131,92 +396,642 @@ public class CodePushUpdateManager {
 
     public JSONObject getPackage(String packageHash) {
         String folderPath = getPackageFolderPath(packageHash);
+        synchronized (sMetadataLock) {
+            JSONObject packageMetadata = sPackageMetadataCache.get(folderPath);
+            if (packageMetadata == null) {
+                String packageFilePath = CodePushUtils.appendPathComponent(folderPath, CodePushConstants.PACKAGE_FILE_NAME);
+                try {
+                    packageMetadata = CodePushUtils.getJsonObjectFromFile(packageFilePath);
+                } catch (IOException e) {
+                    return null;
+                }
+
+                sPackageMetadataCache.put(folderPath, packageMetadata);
+            }
+
+            return copyJsonObject(packageMetadata);
+        }
+    }
+
+    private void savePackage(JSONObject packageMetadata, String folderPath) throws IOException {
         String packageFilePath = CodePushUtils.appendPathComponent(folderPath, CodePushConstants.PACKAGE_FILE_NAME);
+        synchronized (sMetadataLock) {
+            sPackageMetadataCache.remove(folderPath);
+            CodePushUtils.writeJsonToFile(packageMetadata, packageFilePath);
+            sPackageMetadataCache.put(folderPath, copyJsonObject(packageMetadata));
+            sPackageMetadataVersion.incrementAndGet();
+            invalidateBootRecordIfCurrent(folderPath);
+        }
+    }
+
+    private void deletePackageFolder(String folderPath) {
+        synchronized (sMetadataLock) {
+            sPackageMetadataCache.remove(folderPath);
+            invalidateBootRecordIfCurrent(folderPath);
+        }
+
+        FileUtils.deleteDirectoryAtPath(folderPath);
+        sPackageMetadataVersion.incrementAndGet();
+    }
+
+    // Read it before the metadata it is compared against, so that a concurrent write can only make
+    // the metadata newer than the version.
+    long getPackageMetadataVersion() {
+        return sPackageMetadataVersion.get();
+    }
+
+    private static JSONObject copyJsonObject(JSONObject json) {
+        JSONObject copy = new JSONObject();
+        // Some org.json versions declare keys() with a raw Iterator.
+        @SuppressWarnings("unchecked")
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            CodePushUtils.setJSONValueForKey(copy, key, json.opt(key));
+        }
+
+        return copy;
+    }
+
+    private String getDownloadStateFilePath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.DOWNLOAD_STATE_FILE_NAME);
+    }
+
+    // Returns the state of an interrupted download of the same URL if its partial file can be resumed.
+    private JSONObject getResumableDownloadState(String downloadUrlString, File downloadFile) {
+        String downloadStateFilePath = getDownloadStateFilePath();
+        if (!FileUtils.fileAtPathExists(downloadStateFilePath)) {
+            return null;
+        }
+
+        JSONObject downloadState;
         try {
-            return CodePushUtils.getJsonObjectFromFile(packageFilePath);
-        } catch (IOException e) {
+            downloadState = CodePushUtils.getJsonObjectFromFile(downloadStateFilePath);
+        } catch (IOException | CodePushMalformedDataException e) {
+            CodePushUtils.log("Unable to read the state of the previous download, starting over.");
             return null;
         }
+
+        // At least the 4 header bytes are needed to tell whether the package is a zip.
+        long receivedBytes = downloadState.optLong(CodePushConstants.DOWNLOAD_STATE_RECEIVED_BYTES_KEY, 0);
+        if (!downloadUrlString.equals(downloadState.optString(CodePushConstants.DOWNLOAD_STATE_URL_KEY, null))
+                || receivedBytes < 4
+                || downloadFile.length() < receivedBytes) {
+            return null;
+        }
+
+        return downloadState;
+    }
+
+    private void saveDownloadState(String downloadUrlString, String etag, long totalBytes, long receivedBytes) throws IOException {
+        JSONObject downloadState = new JSONObject();
+        CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_URL_KEY, downloadUrlString);
+        CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_ETAG_KEY, etag);
+        CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_TOTAL_BYTES_KEY, totalBytes);
+        CodePushUtils.setJSONValueForKey(downloadState, CodePushConstants.DOWNLOAD_STATE_RECEIVED_BYTES_KEY, receivedBytes);
+        CodePushUtils.writeJsonToFile(downloadState, getDownloadStateFilePath());
+    }
+
+    private void saveDownloadStateSilently(String downloadUrlString, String etag, long totalBytes, long receivedBytes) {
+        try {
+            saveDownloadState(downloadUrlString, etag, totalBytes, receivedBytes);
+        } catch (IOException e) {
+            CodePushUtils.log("Unable to save the state of the interrupted download: " + e.getMessage());
+        }
+    }
+
+    private void clearDownloadState() {
+        String downloadStateFilePath = getDownloadStateFilePath();
+        if (FileUtils.fileAtPathExists(downloadStateFilePath)) {
+            FileUtils.deleteFileAtPathSilently(downloadStateFilePath);
+        }
+    }
+
+    private CodePushHttpResponse requestDownload(String downloadUrl, long resumeOffset, String etag, boolean isRangeProbe) throws IOException {
+        CodePushHttpRequest request = new CodePushHttpRequest("GET", downloadUrl);
+
+        // Byte offsets must refer to the package itself, not to a transparently gzipped representation of it.
+        request.setHeader("Accept-Encoding", "identity");
+        if (resumeOffset > 0) {
+            request.setHeader("Range", "bytes=" + resumeOffset + "-");
+            if (etag != null) {
+                // Makes the server send the whole package instead if it has changed since.
+                request.setHeader("If-Range", etag);
+            }
+        } else if (isRangeProbe) {
+            // Finds out from the response whether the server can serve the package in segments.
+            request.setHeader("Range", "bytes=0-");
+        }
+
+        return mHttpTransport.execute(request);
+    }
+
+    // Returns -1 if the response doesn't declare its length, e.g. because it is chunked.
+    private static long getContentLength(CodePushHttpResponse response) {
+        String contentLength = response.getHeader("Content-Length");
+        if (contentLength == null) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // A response continues the interrupted download only if it holds the rest of the package that was
+    // being downloaded, as declared by its Content-Range ("bytes <first>-<last>/<total>").
+    private static boolean isResumedResponse(CodePushHttpResponse response, long resumeOffset, long expectedTotalBytes) {
+        if (response.getStatusCode() != HttpURLConnection.HTTP_PARTIAL) {
+            return false;
+        }
+
+        String contentRange = response.getHeader("Content-Range");
+        if (contentRange == null || !contentRange.trim().startsWith("bytes " + resumeOffset + "-")) {
+            return false;
+        }
+
+        int totalSeparatorIndex = contentRange.indexOf('/');
+        if (totalSeparatorIndex < 0) {
+            return false;
+        }
+
+        long lastBytePosition;
+        long totalBytes = -1;
+        try {
+            lastBytePosition = Long.parseLong(contentRange.substring(contentRange.indexOf('-') + 1, totalSeparatorIndex).trim());
+            String total = contentRange.substring(totalSeparatorIndex + 1).trim();
+            if (!total.equals("*")) {
+                totalBytes = Long.parseLong(total);
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+
+        if (totalBytes < 0) {
+            totalBytes = expectedTotalBytes;
+        } else if (expectedTotalBytes >= 0 && totalBytes != expectedTotalBytes) {
+            return false;
+        }
+
+        long remainingBytes = getContentLength(response);
+        return (totalBytes < 0 || lastBytePosition == totalBytes - 1)
+                && (remainingBytes < 0 || remainingBytes == lastBytePosition - resumeOffset + 1);
+    }
+
+    private void readDownloadHeader(File downloadFile, byte[] header) throws IOException {
+        FileInputStream fin = null;
+        try {
+            fin = new FileInputStream(downloadFile);
+            int headerOffset = 0;
+            int numBytesRead;
+            while (headerOffset < header.length
+                    && (numBytesRead = fin.read(header, headerOffset, header.length - headerOffset)) >= 0) {
+                headerOffset += numBytesRead;
+            }
+        } finally {
+            if (fin != null) fin.close();
+        }
+    }
+
+    // Reads the first bytes of the stream into header without consuming them.
+    private void peekStreamHeader(BufferedInputStream stream, byte[] header) throws IOException {
+        stream.mark(header.length);
+        int headerOffset = 0;
+        int numBytesRead;
+        while (headerOffset < header.length
+                && (numBytesRead = stream.read(header, headerOffset, header.length - headerOffset)) >= 0) {
+            headerOffset += numBytesRead;
+        }
+
+        stream.reset();
+    }
+
+    private boolean isZipHeader(byte[] header) {
+        return ByteBuffer.wrap(header).getInt() == 0x504b0304;
+    }
+
+    // Besides zip, updates can be tar archives compressed with zstd.
+    private boolean isZstdHeader(byte[] header) {
+        return CodePushZstd.isZstdHeader(ByteBuffer.wrap(header).getInt());
+    }
+
+    private void truncateDownloadFile(File downloadFile, long length) throws IOException {
+        // Drops any bytes written after the last checkpoint, which may not have been fully flushed.
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(downloadFile, "rw");
+            randomAccessFile.setLength(length);
+        } finally {
+            if (randomAccessFile != null) randomAccessFile.close();
+        }
     }
 
     public void downloadPackage(JSONObject updatePackage, String expectedBundleFileName,
                                 DownloadProgressCallback progressCallback,
                                 String stringPublicKey) throws IOException {
+        downloadPackage(updatePackage, expectedBundleFileName, progressCallback, stringPublicKey, new CodePushDownloadHandle());
+    }
+
+    public void downloadPackage(JSONObject updatePackage, String expectedBundleFileName,
+                                DownloadProgressCallback progressCallback,
+                                String stringPublicKey, CodePushDownloadHandle downloadHandle) throws IOException {
+        synchronized (sDownloadLock) {
+            String obsoletePackageHash;
+            synchronized (sPrefetchRequestLock) {
+                if (isPrefetchedPackage(updatePackage)) {
+                    CodePushUtils.log("Using the package downloaded in the background.");
+                    clearPrefetchRequest();
+                    return;
+                }
+
+                obsoletePackageHash = discardPrefetchRequest();
+            }
+
+            deletePrefetchedPackage(obsoletePackageHash);
+            downloadPackageLocked(updatePackage, expectedBundleFileName, progressCallback, stringPublicKey, downloadHandle);
+        }
+    }
+
+    // Downloads the package of the pending prefetch request, if there is one that hasn't completed
+    // yet. The package then waits in its folder until downloadPackage is called for it.
+    public void prefetchPackage(CodePushDownloadHandle downloadHandle) throws IOException {
+        synchronized (sDownloadLock) {
+            JSONObject prefetchRequest;
+            JSONObject updatePackage;
+            synchronized (sPrefetchRequestLock) {
+                prefetchRequest = getPrefetchRequest();
+                if (prefetchRequest == null || prefetchRequest.optBoolean(CodePushConstants.PREFETCH_IS_COMPLETE_KEY, false)) {
+                    return;
+                }
+
+                updatePackage = prefetchRequest.optJSONObject(CodePushConstants.PREFETCH_UPDATE_PACKAGE_KEY);
+                if (updatePackage == null) {
+                    clearPrefetchRequest();
+                    return;
+                }
+            }
+
+            try {
+                downloadPackageLocked(updatePackage,
+                        prefetchRequest.optString(CodePushConstants.PREFETCH_BUNDLE_FILE_NAME_KEY, CodePushConstants.DEFAULT_JS_BUNDLE_NAME),
+                        new DownloadProgressCallback() {
+                            @Override
+                            public void call(DownloadProgress downloadProgress) {
+                            }
+                        },
+                        prefetchRequest.optString(CodePushConstants.PREFETCH_PUBLIC_KEY_KEY, null),
+                        downloadHandle);
+            } catch (CodePushInvalidUpdateException e) {
+                // Leave it to the foreground download to record the failure.
+                synchronized (sPrefetchRequestLock) {
+                    if (isSamePrefetchRequest(updatePackage, getPrefetchRequest())) {
+                        clearPrefetchRequest();
+                    }
+                }
+
+                throw e;
+            }
+
+            synchronized (sPrefetchRequestLock) {
+                if (isSamePrefetchRequest(updatePackage, getPrefetchRequest())) {
+                    CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_IS_COMPLETE_KEY, true);
+                    CodePushUtils.writeJsonToFile(prefetchRequest, getPrefetchRequestFilePath());
+                    return;
+                }
+            }
+
+            // Another update was requested while this one was downloading, so nothing will use it.
+            deletePrefetchedPackage(updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null));
+        }
+    }
+
+    private boolean isSamePrefetchRequest(JSONObject updatePackage, JSONObject prefetchRequest) {
+        JSONObject prefetchedPackage = prefetchRequest == null ? null : prefetchRequest.optJSONObject(CodePushConstants.PREFETCH_UPDATE_PACKAGE_KEY);
+        return prefetchedPackage != null && prefetchedPackage.toString().equals(updatePackage.toString());
+    }
+
+    public void savePrefetchRequest(JSONObject updatePackage, String expectedBundleFileName, String stringPublicKey) throws IOException {
+        JSONObject prefetchRequest = new JSONObject();
+        CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_UPDATE_PACKAGE_KEY, updatePackage);
+        CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_BUNDLE_FILE_NAME_KEY, expectedBundleFileName);
+        CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_PUBLIC_KEY_KEY, stringPublicKey);
+        CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_IS_STREAMING_EXTRACTION_ENABLED_KEY, mIsStreamingExtractionEnabled);
+        CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_IS_SEGMENTED_DOWNLOAD_ENABLED_KEY, mIsSegmentedDownloadEnabled);
+        CodePushUtils.setJSONValueForKey(prefetchRequest, CodePushConstants.PREFETCH_IS_BLOB_STORE_ENABLED_KEY, mIsBlobStoreEnabled);
+        synchronized (sPrefetchRequestLock) {
+            new File(getCodePushPath()).mkdirs();
+            CodePushUtils.writeJsonToFile(prefetchRequest, getPrefetchRequestFilePath());
+        }
+    }
+
+    // Applies the options of the manager that saved the pending prefetch request, for when it is
+    // downloaded in a process where the app hasn't configured CodePush.
+    public void applyPrefetchRequestOptions() {
+        JSONObject prefetchRequest;
+        synchronized (sPrefetchRequestLock) {
+            prefetchRequest = getPrefetchRequest();
+        }
+
+        if (prefetchRequest == null) {
+            return;
+        }
+
+        setStreamingExtractionEnabled(prefetchRequest.optBoolean(CodePushConstants.PREFETCH_IS_STREAMING_EXTRACTION_ENABLED_KEY, false));
+        setSegmentedDownloadEnabled(prefetchRequest.optBoolean(CodePushConstants.PREFETCH_IS_SEGMENTED_DOWNLOAD_ENABLED_KEY, false));
+        setBlobStoreEnabled(prefetchRequest.optBoolean(CodePushConstants.PREFETCH_IS_BLOB_STORE_ENABLED_KEY, false));
+    }
+
+    private JSONObject getPrefetchRequest() {
+        String prefetchRequestFilePath = getPrefetchRequestFilePath();
+        if (!FileUtils.fileAtPathExists(prefetchRequestFilePath)) {
+            return null;
+        }
+
+        try {
+            return CodePushUtils.getJsonObjectFromFile(prefetchRequestFilePath);
+        } catch (IOException | CodePushMalformedDataException e) {
+            CodePushUtils.log("Discarding unreadable prefetch request.");
+            clearPrefetchRequest();
+            return null;
+        }
+    }
+
+    private void clearPrefetchRequest() {
+        String prefetchRequestFilePath = getPrefetchRequestFilePath();
+        if (FileUtils.fileAtPathExists(prefetchRequestFilePath)) {
+            FileUtils.deleteFileAtPathSilently(prefetchRequestFilePath);
+        }
+    }
+
+    // A prefetched package can be used as is if it was built for the same download and the same
+    // binary, the latter being recorded in the package metadata.
+    private boolean isPrefetchedPackage(JSONObject updatePackage) {
+        JSONObject prefetchRequest = getPrefetchRequest();
+        if (prefetchRequest == null || !prefetchRequest.optBoolean(CodePushConstants.PREFETCH_IS_COMPLETE_KEY, false)) {
+            return false;
+        }
+
+        JSONObject prefetchedPackage = prefetchRequest.optJSONObject(CodePushConstants.PREFETCH_UPDATE_PACKAGE_KEY);
+        String packageHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
+        if (prefetchedPackage == null || packageHash == null || getPackage(packageHash) == null) {
+            return false;
+        }
+
+        String[] keys = {CodePushConstants.PACKAGE_HASH_KEY, CodePushConstants.DOWNLOAD_URL_KEY, CodePushConstants.BINARY_MODIFIED_TIME_KEY};
+        for (String key : keys) {
+            String value = updatePackage.optString(key, null);
+            if (value == null || !value.equals(prefetchedPackage.optString(key, null))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // Another package is being downloaded, so the prefetched one is obsolete. Returns the hash of the
+    // package that was already prefetched for it, if any, which is left to the caller to delete.
+    private String discardPrefetchRequest() {
+        JSONObject prefetchRequest = getPrefetchRequest();
+        if (prefetchRequest == null) {
+            return null;
+        }
+
+        clearPrefetchRequest();
+        JSONObject prefetchedPackage = prefetchRequest.optJSONObject(CodePushConstants.PREFETCH_UPDATE_PACKAGE_KEY);
+        if (!prefetchRequest.optBoolean(CodePushConstants.PREFETCH_IS_COMPLETE_KEY, false) || prefetchedPackage == null) {
+            return null;
+        }
+
+        return prefetchedPackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
+    }
+
+    private void deletePrefetchedPackage(String packageHash) {
+        if (packageHash != null && !packageHash.equals(getCurrentPackageHash()) && !packageHash.equals(getPreviousPackageHash())) {
+            deletePackageFolder(getPackageFolderPath(packageHash));
+            removeUnusedBlobs();
+        }
+    }
+
+    private String getPrefetchRequestFilePath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.PREFETCH_REQUEST_FILE_NAME);
+    }
+
+    private void downloadPackageLocked(JSONObject updatePackage, String expectedBundleFileName,
+                                       DownloadProgressCallback progressCallback,
+                                       String stringPublicKey, CodePushDownloadHandle downloadHandle) throws IOException {
         String newUpdateHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
         String newUpdateFolderPath = getPackageFolderPath(newUpdateHash);
         String newUpdateMetadataPath = CodePushUtils.appendPathComponent(newUpdateFolderPath, CodePushConstants.PACKAGE_FILE_NAME);
         if (FileUtils.fileAtPathExists(newUpdateFolderPath)) {
             // This removes any stale data in newPackageFolderPath that could have been left
             // uncleared due to a crash or error during the download or install process.
-            FileUtils.deleteDirectoryAtPath(newUpdateFolderPath);
+            deletePackageFolder(newUpdateFolderPath);
+            removeUnusedBlobs();
         }
 
         String downloadUrlString = updatePackage.optString(CodePushConstants.DOWNLOAD_URL_KEY, null);
-        HttpURLConnection connection = null;
+        ExtractedFileCallback signatureCallback = createSignatureCallback(newUpdateHash, stringPublicKey);
+        CodePushHttpResponse response = null;
         BufferedInputStream bin = null;
         FileOutputStream fos = null;
         BufferedOutputStream bout = null;
         File downloadFile = null;
         boolean isZip = false;
+        boolean isZstd = false;
+        boolean isExtracted = false;
+        boolean isSegmented = false;
+        Map<String, String> extractedFileHashes = null;
+        boolean isDownloadComplete = false;
+        boolean isDownloadResumable = true;
+        String etag = null;
+        long totalBytes = -1;
+        long receivedBytes = 0;
+
+        DownloadProgressReporter progressReporter = new DownloadProgressReporter(progressCallback,
+                mDownloadProgressByteGranularity, mDownloadProgressPercentGranularity, mDownloadProgressTimeGranularityMs);
 
         // Download the file while checking if it is a zip and notifying client of progress.
         try {
-            URL downloadUrl = new URL(downloadUrlString);
-            connection = (HttpURLConnection) (downloadUrl.openConnection());
-
-            long totalBytes = connection.getContentLength();
-            long receivedBytes = 0;
-
-            bin = new BufferedInputStream(connection.getInputStream());
             File downloadFolder = new File(getCodePushPath());
             downloadFolder.mkdirs();
             downloadFile = new File(downloadFolder, CodePushConstants.DOWNLOAD_FILE_NAME);
-            fos = new FileOutputStream(downloadFile);
-            bout = new BufferedOutputStream(fos, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
-            byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+
+            // If a previous download of the same package was interrupted, only request the remaining bytes.
+            JSONObject downloadState = getResumableDownloadState(downloadUrlString, downloadFile);
+            long resumeOffset = 0;
+            if (downloadState != null) {
+                resumeOffset = downloadState.optLong(CodePushConstants.DOWNLOAD_STATE_RECEIVED_BYTES_KEY, 0);
+                etag = downloadState.optString(CodePushConstants.DOWNLOAD_STATE_ETAG_KEY, null);
+            }
+
+            downloadHandle.throwIfInterrupted();
+            response = requestDownload(downloadUrlString, resumeOffset, etag, mIsSegmentedDownloadEnabled);
+            downloadHandle.setResponse(response);
+            if (resumeOffset > 0) {
+                long expectedTotalBytes = downloadState.optLong(CodePushConstants.DOWNLOAD_STATE_TOTAL_BYTES_KEY, -1);
+                if (!isResumedResponse(response, resumeOffset, expectedTotalBytes)) {
+                    if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+                        // The server could not serve the remaining range (e.g. 416) or sent another one, so
+                        // request the whole package again.
+                        response.close();
+                        response = requestDownload(downloadUrlString, 0, null, false);
+                        downloadHandle.setResponse(response);
+                    }
+
+                    // The server ignored the range request or the package changed, so start over.
+                    resumeOffset = 0;
+                }
+            }
+
+            if (response.getStatusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IOException("Unable to download " + downloadUrlString + ", the server responded with status " + response.getStatusCode() + ".");
+            }
+
+            if (resumeOffset == 0) {
+                etag = response.getHeader("ETag");
+            }
+
+            long contentLength = getContentLength(response);
+            totalBytes = contentLength < 0 ? -1 : resumeOffset + contentLength;
+            receivedBytes = resumeOffset;
+
             byte[] header = new byte[4];
+            if (resumeOffset > 0) {
+                CodePushUtils.log("Resuming download of " + downloadUrlString + " from byte " + resumeOffset + ".");
+                readDownloadHeader(downloadFile, header);
+                truncateDownloadFile(downloadFile, resumeOffset);
+            }
 
-            int numBytesRead = 0;
-            while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
-                if (receivedBytes < 4) {
-                    for (int i = 0; i < numBytesRead; i++) {
-                        int headerOffset = (int) (receivedBytes) + i;
-                        if (headerOffset >= 4) {
-                            break;
-                        }
+            long rangeTotalBytes = mIsSegmentedDownloadEnabled && resumeOffset == 0
+                    ? CodePushSegmentedDownload.getRangeTotalBytes(response) : -1;
+            if (rangeTotalBytes >= CodePushSegmentedDownload.MIN_SEGMENTED_DOWNLOAD_SIZE) {
+                // The segments complete out of order, so there is no single offset to resume from.
+                isDownloadResumable = false;
+                isSegmented = true;
+                totalBytes = rangeTotalBytes;
+                new CodePushSegmentedDownload(mHttpTransport, downloadUrlString, etag, downloadFile, totalBytes,
+                        progressReporter, downloadHandle).download(response);
+                receivedBytes = totalBytes;
+                readDownloadHeader(downloadFile, header);
+            } else {
+                bin = new BufferedInputStream(response.getBody());
+            }
 
-                        header[headerOffset] = data[i];
+            if (mIsStreamingExtractionEnabled && !isSegmented && resumeOffset == 0) {
+                peekStreamHeader(bin, header);
+                if (isZipHeader(header) || isZstdHeader(header)) {
+                    // Extract the entries as the bytes arrive, without the download.zip round trip.
+                    isDownloadResumable = false;
+                    DownloadProgressInputStream progressStream = new DownloadProgressInputStream(bin, totalBytes, receivedBytes, progressReporter, downloadHandle);
+                    try {
+                        extractedFileHashes = isZstdHeader(header)
+                                ? FileUtils.extractTarZstdStream(progressStream, getUnzippedFolderPath(), signatureCallback)
+                                : FileUtils.unzipStream(progressStream, getUnzippedFolderPath(), signatureCallback);
+                    } finally {
+                        receivedBytes = progressStream.getReceivedBytes();
                     }
+
+                    isExtracted = true;
                 }
+            }
 
-                receivedBytes += numBytesRead;
-                bout.write(data, 0, numBytesRead);
-                progressCallback.call(new DownloadProgress(totalBytes, receivedBytes));
+            if (!isExtracted && !isSegmented) {
+                saveDownloadState(downloadUrlString, etag, totalBytes, receivedBytes);
+
+                fos = new FileOutputStream(downloadFile, resumeOffset > 0);
+                bout = new BufferedOutputStream(fos, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
+                byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
+                long checkpointedBytes = receivedBytes;
+
+                int numBytesRead = 0;
+                while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
+                    downloadHandle.throwIfInterrupted();
+                    if (receivedBytes < 4) {
+                        for (int i = 0; i < numBytesRead; i++) {
+                            int headerOffset = (int) (receivedBytes) + i;
+                            if (headerOffset >= 4) {
+                                break;
+                            }
+
+                            header[headerOffset] = data[i];
+                        }
+                    }
+
+                    receivedBytes += numBytesRead;
+                    bout.write(data, 0, numBytesRead);
+
+                    // Periodically record how many bytes are safely on disk, so that the download can
+                    // be resumed even if the process is killed without reaching the finally block.
+                    if (receivedBytes - checkpointedBytes >= CodePushConstants.DOWNLOAD_STATE_CHECKPOINT_SIZE) {
+                        bout.flush();
+                        saveDownloadState(downloadUrlString, etag, totalBytes, receivedBytes);
+                        checkpointedBytes = receivedBytes;
+                    }
+
+                    progressReporter.report(totalBytes, receivedBytes);
+                }
             }
 
-            if (totalBytes != receivedBytes) {
+            if (totalBytes < 0) {
+                // Chunked responses don't declare their length up front, so report completion now.
+                totalBytes = receivedBytes;
+                progressReporter.report(totalBytes, receivedBytes);
+            } else if (totalBytes != receivedBytes) {
+                // Receiving more bytes than declared means the partial file can't be trusted.
+                isDownloadResumable = isDownloadResumable && receivedBytes < totalBytes;
                 throw new CodePushUnknownException("Received " + receivedBytes + " bytes, expected " + totalBytes);
             }
 
-            isZip = ByteBuffer.wrap(header).getInt() == 0x504b0304;
+            isZstd = isZstdHeader(header);
+            isZip = isZstd || isZipHeader(header);
+            isDownloadComplete = true;
         } catch (MalformedURLException e) {
             throw new CodePushMalformedDataException(downloadUrlString, e);
+        } catch (IOException e) {
+            // Pausing or canceling closes the connection, which fails a read in progress.
+            downloadHandle.throwIfInterrupted();
+            throw e;
         } finally {
+            downloadHandle.setResponse(null);
             try {
                 if (bout != null) bout.close();
                 if (fos != null) fos.close();
-                if (bin != null) bin.close();
-                if (connection != null) connection.disconnect();
+
+                // Releasing a response that was read to the end lets the transport reuse the connection.
+                if (response != null) response.close();
             } catch (IOException e) {
                 throw new CodePushUnknownException("Error closing IO resources.", e);
+            } finally {
+                if (isDownloadComplete) {
+                    clearDownloadState();
+                } else if (!isDownloadResumable || downloadHandle.isCanceled()) {
+                    clearDownloadState();
+                    if (downloadFile != null) {
+                        FileUtils.deleteFileOrFolderSilently(downloadFile);
+                    }
+
+                    FileUtils.deleteDirectoryAtPath(getUnzippedFolderPath());
+                } else if (receivedBytes > 0) {
+                    saveDownloadStateSilently(downloadUrlString, etag, totalBytes, receivedBytes);
+                }
             }
         }
 
         if (isZip) {
-            // Unzip the downloaded file and then delete the zip
+            // Unzip the downloaded file and then delete the zip, unless it was extracted while downloading
             String unzippedFolderPath = getUnzippedFolderPath();
-            FileUtils.unzipFile(downloadFile, unzippedFolderPath);
-            FileUtils.deleteFileOrFolderSilently(downloadFile);
+            if (!isExtracted) {
+                if (!isZstd && stringPublicKey != null) {
+                    verifyZipSignature(downloadFile, newUpdateHash, stringPublicKey);
+                }
+
+                extractedFileHashes = isZstd
+                        ? FileUtils.extractTarZstdFile(downloadFile, unzippedFolderPath, signatureCallback)
+                        : FileUtils.unzipFile(downloadFile, unzippedFolderPath);
+                FileUtils.deleteFileOrFolderSilently(downloadFile);
+            }
 
             // Merge contents with current update based on the manifest
             String diffManifestFilePath = CodePushUtils.appendPathComponent(unzippedFolderPath,
@@ -224,14 +1039,11 @@ public class CodePushUpdateManager {
             boolean isDiffUpdate = FileUtils.fileAtPathExists(diffManifestFilePath);
             if (isDiffUpdate) {
                 String currentPackageFolderPath = getCurrentPackageFolderPath();
-                CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath, newUpdateFolderPath);
-                File diffManifestFile = new File(diffManifestFilePath);
-                diffManifestFile.delete();
+                extractedFileHashes.putAll(CodePushUpdateUtils.applyDiffUpdate(diffManifestFilePath, currentPackageFolderPath, unzippedFolderPath, newUpdateFolderPath));
+            } else {
+                FileUtils.moveDirectoryContents(unzippedFolderPath, newUpdateFolderPath);
             }
 
-            FileUtils.copyDirectoryContents(unzippedFolderPath, newUpdateFolderPath);
-            FileUtils.deleteFileAtPathSilently(unzippedFolderPath);
-
             // For zip updates, we need to find the relative path to the jsBundle and save it in the
             // metadata so that we can find and run it easily the next time.
             String relativeBundlePath = CodePushUpdateUtils.findJSBundleInUpdateContents(newUpdateFolderPath, expectedBundleFileName);
@@ -251,13 +1063,14 @@ public class CodePushUpdateManager {
                 }
 
                 boolean isSignatureVerificationEnabled = (stringPublicKey != null);
+                Map<String, String> verifiedFileHashes = null;
 
                 String signaturePath = CodePushUpdateUtils.getSignatureFilePath(newUpdateFolderPath);
                 boolean isSignatureAppearedInBundle = FileUtils.fileAtPathExists(signaturePath);
 
                 if (isSignatureVerificationEnabled) {
                     if (isSignatureAppearedInBundle) {
-                        CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        verifiedFileHashes = CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash, extractedFileHashes);
                         CodePushUpdateUtils.verifyUpdateSignature(newUpdateFolderPath, newUpdateHash, stringPublicKey);
                     } else {
                         throw new CodePushInvalidUpdateException(
@@ -273,15 +1086,32 @@ public class CodePushUpdateManager {
                                 "Warning! JWT signature exists in codepush update but code integrity check couldn't be performed because there is no public key configured. " +
                                 "Please ensure that public key is properly configured within your application."
                         );
-                        CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        verifiedFileHashes = CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash, extractedFileHashes);
                     } else {
                         if (isDiffUpdate) {
-                            CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                            verifiedFileHashes = CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash, extractedFileHashes);
                         }
                     }
                 }
 
                 CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, relativeBundlePath);
+
+                // Full updates that weren't verified were still hashed while they were extracted.
+                Map<String, String> fileHashes = verifiedFileHashes != null ? verifiedFileHashes
+                        : CodePushUpdateUtils.computeFileHashes(newUpdateFolderPath, extractedFileHashes);
+                extractedFileHashes.putAll(fileHashes);
+
+                CodePushBlobStore blobStore = getBlobStore();
+                if (blobStore != null) {
+                    blobStore.addFolderContents(newUpdateFolderPath, extractedFileHashes);
+                }
+
+                try {
+                    CodePushUpdateUtils.saveFileHashes(newUpdateFolderPath, fileHashes);
+                } catch (IOException e) {
+                    // The next diff update hashes the files it carries over from this one instead.
+                    CodePushUtils.log("Unable to save the file hashes of the update: " + e.getMessage());
+                }
             }
         } else {
             // File is a jsbundle, move it to a folder with the packageHash as its name
@@ -289,56 +1119,157 @@ public class CodePushUpdateManager {
         }
 
         // Save metadata to the folder.
-        CodePushUtils.writeJsonToFile(updatePackage, newUpdateMetadataPath);
+        savePackage(updatePackage, newUpdateFolderPath);
+    }
+
+    // Returns a callback that checks the signature of an update as soon as it is extracted, or null if
+    // updates aren't signed. The signature is checked again once the update is verified as a whole.
+    private static ExtractedFileCallback createSignatureCallback(final String packageHash, final String stringPublicKey) {
+        if (stringPublicKey == null) {
+            return null;
+        }
+
+        return new ExtractedFileCallback() {
+            @Override
+            public void call(String relativePath, File file) throws IOException {
+                if (relativePath.equals(CodePushUpdateUtils.SIGNATURE_RELATIVE_PATH)) {
+                    CodePushUpdateUtils.verifySignature(FileUtils.readFileToString(file.getPath()), packageHash, stringPublicKey);
+                }
+            }
+        };
+    }
+
+    // Checks the signature of a downloaded zip update before it is extracted, reading only that entry
+    // through the central directory. Updates without one are left to the checks after extraction.
+    private static void verifyZipSignature(File zipFile, String packageHash, String stringPublicKey) throws IOException {
+        ZipFile zip;
+        try {
+            zip = new ZipFile(zipFile);
+        } catch (IOException e) {
+            // Extraction reads the entries in order, so it may still succeed, and fails otherwise.
+            CodePushUtils.log("Unable to read the signature before extracting the update: " + e.getMessage());
+            return;
+        }
+
+        try {
+            ZipEntry signatureEntry = zip.getEntry(CodePushUpdateUtils.SIGNATURE_RELATIVE_PATH);
+            if (signatureEntry != null) {
+                CodePushUpdateUtils.verifySignature(FileUtils.readStreamToString(zip.getInputStream(signatureEntry)), packageHash, stringPublicKey);
+            }
+        } finally {
+            zip.close();
+        }
     }
 
     public void installPackage(JSONObject updatePackage, boolean removePendingUpdate) {
+        JSONObject transition = getInstallTransition(updatePackage, removePendingUpdate);
+        if (transition != null) {
+            applyTransition(transition);
+        }
+    }
+
+    public void rollbackPackage() {
+        applyTransition(getRollbackTransition());
+    }
+
+    // Describes the new status and the package folders that become obsolete when the package is
+    // installed, or returns null if it is already the current one.
+    JSONObject getInstallTransition(JSONObject updatePackage, boolean removePendingUpdate) {
         String packageHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
         JSONObject info = getCurrentPackageInfo();
 
         String currentPackageHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
         if (packageHash != null && packageHash.equals(currentPackageHash)) {
             // The current package is already the one being installed, so we should no-op.
-            return;
+            return null;
         }
 
+        JSONArray deletedPackages = new JSONArray();
         if (removePendingUpdate) {
-            String currentPackageFolderPath = getCurrentPackageFolderPath();
-            if (currentPackageFolderPath != null) {
-                FileUtils.deleteDirectoryAtPath(currentPackageFolderPath);
+            if (currentPackageHash != null) {
+                deletedPackages.put(currentPackageHash);
             }
         } else {
             String previousPackageHash = getPreviousPackageHash();
             if (previousPackageHash != null && !previousPackageHash.equals(packageHash)) {
-                FileUtils.deleteDirectoryAtPath(getPackageFolderPath(previousPackageHash));
+                deletedPackages.put(previousPackageHash);
             }
 
-            CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null));
+            CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, currentPackageHash);
         }
 
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.CURRENT_PACKAGE_KEY, packageHash);
-        updateCurrentPackageInfo(info);
+        return createTransition(info, deletedPackages);
     }
 
-    public void rollbackPackage() {
+    // Describes the new status and the package folder that becomes obsolete when the current package
+    // is rolled back to the previous one.
+    JSONObject getRollbackTransition() {
         JSONObject info = getCurrentPackageInfo();
-        String currentPackageFolderPath = getCurrentPackageFolderPath();
-        FileUtils.deleteDirectoryAtPath(currentPackageFolderPath);
+        JSONArray deletedPackages = new JSONArray();
+        String currentPackageHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
+        if (currentPackageHash != null) {
+            deletedPackages.put(currentPackageHash);
+        }
+
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.CURRENT_PACKAGE_KEY, info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null));
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
-        updateCurrentPackageInfo(info);
+        return createTransition(info, deletedPackages);
+    }
+
+    private JSONObject createTransition(JSONObject info, JSONArray deletedPackages) {
+        JSONObject transition = new JSONObject();
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_STATUS_KEY, info);
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_DELETED_PACKAGES_KEY, deletedPackages);
+        return transition;
+    }
+
+    // The status is written before any folder is deleted, so that it never refers to a package which
+    // no longer exists. Applying a transition more than once has no further effect.
+    void applyTransition(JSONObject transition) {
+        updateTransitionStatus(transition);
+        removeTransitionPackages(transition);
+    }
+
+    void updateTransitionStatus(JSONObject transition) {
+        JSONObject info = transition.optJSONObject(CodePushConstants.TRANSITION_STATUS_KEY);
+        if (info != null) {
+            updateCurrentPackageInfo(info);
+        }
+    }
+
+    void removeTransitionPackages(JSONObject transition) {
+        JSONArray deletedPackages = transition.optJSONArray(CodePushConstants.TRANSITION_DELETED_PACKAGES_KEY);
+        if (deletedPackages == null) {
+            return;
+        }
+
+        for (int i = 0; i < deletedPackages.length(); i++) {
+            String packageHash = deletedPackages.optString(i, null);
+            if (packageHash != null) {
+                deletePackageFolder(getPackageFolderPath(packageHash));
+            }
+        }
+
+        removeUnusedBlobs();
+    }
+
+    String getJournalFilePath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.JOURNAL_FILE_NAME);
     }
 
     public void downloadAndReplaceCurrentBundle(String remoteBundleUrl, String bundleFileName) throws IOException {
-        URL downloadUrl;
-        HttpURLConnection connection = null;
+        CodePushHttpResponse response = null;
         BufferedInputStream bin = null;
         FileOutputStream fos = null;
         BufferedOutputStream bout = null;
         try {
-            downloadUrl = new URL(remoteBundleUrl);
-            connection = (HttpURLConnection) (downloadUrl.openConnection());
-            bin = new BufferedInputStream(connection.getInputStream());
+            response = mHttpTransport.execute(new CodePushHttpRequest("GET", remoteBundleUrl));
+            if (response.getStatusCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IOException("Unable to download " + remoteBundleUrl + ", the server responded with status " + response.getStatusCode() + ".");
+            }
+
+            bin = new BufferedInputStream(response.getBody());
             File downloadFile = new File(getCurrentPackageBundlePath(bundleFileName));
             downloadFile.delete();
             fos = new FileOutputStream(downloadFile);
@@ -354,8 +1285,7 @@ public class CodePushUpdateManager {
             try {
                 if (bout != null) bout.close();
                 if (fos != null) fos.close();
-                if (bin != null) bin.close();
-                if (connection != null) connection.disconnect();
+                if (response != null) response.close();
             } catch (IOException e) {
                 throw new CodePushUnknownException("Error closing IO resources.", e);
             }
@@ -363,6 +1293,12 @@ public class CodePushUpdateManager {
     }
 
     public void clearUpdates() {
-        FileUtils.deleteDirectoryAtPath(getCodePushPath());
+        synchronized (sMetadataLock) {
+            sCurrentPackageInfo = null;
+            sPackageMetadataCache.clear();
+            sBootRecord = null;
+            FileUtils.deleteDirectoryAtPath(getCodePushPath());
+            sPackageMetadataVersion.incrementAndGet();
+        }
     }
 }
\ No newline at end of file
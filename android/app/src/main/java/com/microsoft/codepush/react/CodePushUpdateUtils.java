@@ -27,12 +27,31 @@ import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CodePushUpdateUtils {
 
     public static final String NEW_LINE = System.getProperty("line.separator");
 
+    // The path of the signature relative to the package folder, as it appears in update archives.
+    public static final String SIGNATURE_RELATIVE_PATH = CodePushConstants.CODE_PUSH_FOLDER_PREFIX + "/" + CodePushConstants.BUNDLE_JWT_FILE;
+
+    private static final int MAX_HASHING_THREAD_COUNT = 4;
+    private static final int MIN_PARALLEL_HASHING_FILE_COUNT = 16;
+
+    // The verifier for the public key that was used last, since parsing the key costs more than
+    // checking a signature and the key is normally the same for every update. Guarded by the class.
+    private static String sVerifierPublicKey;
+    private static JWSVerifier sVerifier;
+
     // Note: The hashing logic here must mirror the hashing logic in other native SDK's, as well as in the
     // CLI. Ensure that any changes here are propagated to these other locations.
     public static boolean isHashIgnored(String relativeFilePath) {
@@ -47,7 +66,8 @@ public class CodePushUpdateUtils {
                 || relativeFilePath.endsWith("/" + CODEPUSH_METADATA);
     }
 
-    private static void addContentsOfFolderToManifest(String folderPath, String pathPrefix, ArrayList<String> manifest) {
+    private static void addContentsOfFolderToManifest(String folderPath, String pathPrefix, Map<String, String> knownFileHashes,
+                                                      Map<String, String> fileHashes, Map<String, File> filesToHash) {
         File folder = new File(folderPath);
         File[] folderFiles = folder.listFiles();
         for (File file : folderFiles) {
@@ -60,27 +80,90 @@ public class CodePushUpdateUtils {
             }
 
             if (file.isDirectory()) {
-                addContentsOfFolderToManifest(fullFilePath, relativePath, manifest);
+                addContentsOfFolderToManifest(fullFilePath, relativePath, knownFileHashes, fileHashes, filesToHash);
             } else {
-                try {
-                    manifest.add(relativePath + ":" + computeHash(new FileInputStream(file)));
-                } catch (FileNotFoundException e) {
-                    // Should not happen.
-                    throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+                String fileHash = knownFileHashes.get(relativePath);
+                if (fileHash == null) {
+                    filesToHash.put(relativePath, file);
+                } else {
+                    fileHashes.put(relativePath, fileHash);
                 }
             }
         }
     }
 
+    static String computeFileHash(File file) {
+        try {
+            return computeHash(new FileInputStream(file));
+        } catch (FileNotFoundException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+        }
+    }
+
+    // Hashes the given files, spreading the work over a bounded number of threads when there are
+    // enough of them for that to pay off.
+    private static void addFileHashesToManifest(Map<String, File> filesToHash, Map<String, String> fileHashes) {
+        int threadCount = Math.min(Runtime.getRuntime().availableProcessors(), MAX_HASHING_THREAD_COUNT);
+        if (threadCount < 2 || filesToHash.size() < MIN_PARALLEL_HASHING_FILE_COUNT) {
+            for (Map.Entry<String, File> fileToHash : filesToHash.entrySet()) {
+                fileHashes.put(fileToHash.getKey(), computeFileHash(fileToHash.getValue()));
+            }
+
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            Map<String, Future<String>> pendingFileHashes = new HashMap<>();
+            for (final Map.Entry<String, File> fileToHash : filesToHash.entrySet()) {
+                pendingFileHashes.put(fileToHash.getKey(), executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return computeFileHash(fileToHash.getValue());
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<String>> pendingFileHash : pendingFileHashes.entrySet()) {
+                fileHashes.put(pendingFileHash.getKey(), pendingFileHash.getValue().get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new CodePushUnknownException("Unable to compute hash of update contents.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CodePushUnknownException("Interrupted while computing hash of update contents.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static MessageDigest createHashDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+        }
+    }
+
+    static String formatHash(byte[] hash) {
+        return String.format("%064x", new java.math.BigInteger(1, hash));
+    }
+
     private static String computeHash(InputStream dataStream) {
         MessageDigest messageDigest = null;
         DigestInputStream digestInputStream = null;
         try {
-            messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest = createHashDigest();
             digestInputStream = new DigestInputStream(dataStream, messageDigest);
             byte[] byteBuffer = new byte[1024 * 8];
             while (digestInputStream.read(byteBuffer) != -1) ;
-        } catch (NoSuchAlgorithmException | IOException e) {
+        } catch (IOException e) {
             // Should not happen.
             throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
         } finally {
@@ -93,24 +176,119 @@ public class CodePushUpdateUtils {
         }
 
         byte[] hash = messageDigest.digest();
-        return String.format("%064x", new java.math.BigInteger(1, hash));
+        return formatHash(hash);
     }
 
-    public static void copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath) throws IOException {
-        FileUtils.copyDirectoryContents(currentPackageFolderPath, newPackageFolderPath);
+    // Builds the folder of a diff update without writing any file twice: files of the current package
+    // that the diff neither deletes nor replaces are hard-linked (or copied where links aren't
+    // supported), files listed as patched are rebuilt from their binary patch, and the files contained
+    // in the diff are moved in. Returns the hashes of the patched files and of the files carried over
+    // whose hash was saved with the current package, keyed by their relative path.
+    public static Map<String, String> applyDiffUpdate(String diffManifestFilePath, String currentPackageFolderPath, String diffFolderPath, String newPackageFolderPath) throws IOException {
         JSONObject diffManifest = CodePushUtils.getJsonObjectFromFile(diffManifestFilePath);
+        Set<String> deletedFiles = new HashSet<>();
+        Set<String> patchedFiles = new HashSet<>();
         try {
-            JSONArray deletedFiles = diffManifest.getJSONArray("deletedFiles");
-            for (int i = 0; i < deletedFiles.length(); i++) {
-                String fileNameToDelete = deletedFiles.getString(i);
-                File fileToDelete = new File(newPackageFolderPath, fileNameToDelete);
-                if (fileToDelete.exists()) {
-                    fileToDelete.delete();
+            JSONArray deletedFilesArray = diffManifest.getJSONArray("deletedFiles");
+            for (int i = 0; i < deletedFilesArray.length(); i++) {
+                deletedFiles.add(deletedFilesArray.getString(i));
+            }
+
+            JSONArray patchedFilesArray = diffManifest.optJSONArray("patchedFiles");
+            if (patchedFilesArray != null) {
+                for (int i = 0; i < patchedFilesArray.length(); i++) {
+                    patchedFiles.add(patchedFilesArray.getString(i));
                 }
             }
         } catch (JSONException e) {
             throw new CodePushUnknownException("Unable to copy files from current package during diff update", e);
         }
+
+        // A file that is patched can't also be shipped or deleted by the same diff, or the file left on
+        // disk would not be the one whose hash is taken from the patch.
+        File diffFolder = new File(diffFolderPath);
+        for (String patchedFile : patchedFiles) {
+            if (deletedFiles.contains(patchedFile) || new File(diffFolder, patchedFile).exists()) {
+                throw new CodePushInvalidUpdateException("The diff update both patches and replaces " + patchedFile + ".");
+            }
+
+            File currentFile = currentPackageFolderPath == null ? null : new File(currentPackageFolderPath, patchedFile);
+            if (currentFile == null || !currentFile.isFile()) {
+                throw new CodePushInvalidUpdateException("The diff update patches " + patchedFile + ", which is not part of the current package.");
+            }
+
+            if (!new File(diffFolder, patchedFile + CodePushConstants.DIFF_PATCH_FILE_EXTENSION).isFile()) {
+                throw new CodePushInvalidUpdateException("The diff update is missing the patch for " + patchedFile + ".");
+            }
+        }
+
+        File newPackageFolder = new File(newPackageFolderPath);
+        newPackageFolder.mkdirs();
+        Map<String, String> fileHashes = new HashMap<>();
+        if (currentPackageFolderPath != null) {
+            Set<String> excludedFiles = new HashSet<>(deletedFiles);
+            excludedFiles.addAll(patchedFiles);
+            linkUnchangedFiles(new File(currentPackageFolderPath), "", excludedFiles, diffFolder, newPackageFolder,
+                    getFileHashes(currentPackageFolderPath), fileHashes);
+        }
+
+        // Paths in the manifest aren't necessarily spelled the way they are found on disk.
+        for (String deletedFile : deletedFiles) {
+            File fileToDelete = new File(newPackageFolder, deletedFile);
+            if (fileToDelete.exists()) {
+                fileToDelete.delete();
+            }
+        }
+
+        File diffManifestFile = new File(diffManifestFilePath);
+        diffManifestFile.delete();
+        FileUtils.moveDirectoryContents(diffFolderPath, newPackageFolderPath);
+
+        // The patches are applied last, so that nothing can replace their output afterwards and the
+        // hash of every patched file is that of the file on disk.
+        for (String patchedFile : patchedFiles) {
+            File newFile = new File(newPackageFolder, patchedFile);
+            if (newFile.exists()) {
+                throw new CodePushInvalidUpdateException("The diff update both patches and replaces " + patchedFile + ".");
+            }
+
+            File patchFile = new File(newPackageFolder, patchedFile + CodePushConstants.DIFF_PATCH_FILE_EXTENSION);
+            fileHashes.put(patchedFile, PatchUtils.applyPatch(new File(currentPackageFolderPath, patchedFile), patchFile, newFile));
+            patchFile.delete();
+        }
+
+        return fileHashes;
+    }
+
+    // Adds the saved hash of every file it carries over from currentFileHashes to fileHashes.
+    private static void linkUnchangedFiles(File currentFolder, String pathPrefix, Set<String> excludedFiles, File diffFolder, File newFolder,
+                                           Map<String, String> currentFileHashes, Map<String, String> fileHashes) throws IOException {
+        for (File currentFile : currentFolder.listFiles()) {
+            String relativePath = (pathPrefix.isEmpty() ? "" : (pathPrefix + "/")) + currentFile.getName();
+            if (currentFile.isDirectory()) {
+                linkUnchangedFiles(currentFile, relativePath, excludedFiles, diffFolder, newFolder, currentFileHashes, fileHashes);
+                continue;
+            }
+
+            // The metadata and file hashes of the current package are replaced by those of the new one.
+            if (relativePath.equals(CodePushConstants.PACKAGE_FILE_NAME)
+                    || relativePath.equals(CodePushConstants.FILE_HASHES_FILE_NAME)
+                    || excludedFiles.contains(relativePath)
+                    || new File(diffFolder, relativePath).exists()) {
+                continue;
+            }
+
+            File newFile = new File(newFolder, relativePath);
+            newFile.getParentFile().mkdirs();
+            if (!FileUtils.createHardLink(currentFile, newFile)) {
+                FileUtils.copyFile(currentFile, newFile);
+            }
+
+            String fileHash = currentFileHashes.get(relativePath);
+            if (fileHash != null) {
+                fileHashes.put(relativePath, fileHash);
+            }
+        }
     }
 
     public static String findJSBundleInUpdateContents(String folderPath, String expectedFileName) {
@@ -156,9 +334,20 @@ public class CodePushUpdateUtils {
     // 2. JSON stringify the array
     // 3. SHA256-hash the result
     public static void verifyFolderHash(String folderPath, String expectedHash) {
+        verifyFolderHash(folderPath, expectedHash, Collections.<String, String>emptyMap());
+    }
+
+    // Same as above, but reuses the hashes in knownFileHashes (keyed by path relative to folderPath),
+    // e.g. the ones computed while the files were extracted, instead of reading those files again.
+    // Returns the verified hash of every file the package hash covers, keyed the same way.
+    public static Map<String, String> verifyFolderHash(String folderPath, String expectedHash, Map<String, String> knownFileHashes) {
         CodePushUtils.log("Verifying hash for folder path: " + folderPath);
-        ArrayList<String> updateContentsManifest = new ArrayList<>();
-        addContentsOfFolderToManifest(folderPath, "", updateContentsManifest);
+        Map<String, String> fileHashes = computeFileHashes(folderPath, knownFileHashes);
+        ArrayList<String> updateContentsManifest = new ArrayList<>(fileHashes.size());
+        for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+            updateContentsManifest.add(fileHash.getKey() + ":" + fileHash.getValue());
+        }
+
         //sort manifest strings to make sure, that they are completely equal with manifest strings has been generated in cli!
         Collections.sort(updateContentsManifest);
         JSONArray updateContentsJSONArray = new JSONArray();
@@ -178,12 +367,70 @@ public class CodePushUpdateUtils {
         }
 
         CodePushUtils.log("The update contents succeeded the data integrity check.");
+        return fileHashes;
+    }
+
+    // Returns the hash of every file in the folder that the package hash covers, keyed by its path
+    // relative to the folder. Only the files that have no hash in knownFileHashes are read.
+    public static Map<String, String> computeFileHashes(String folderPath, Map<String, String> knownFileHashes) {
+        Map<String, String> fileHashes = new HashMap<>();
+        Map<String, File> filesToHash = new HashMap<>();
+        addContentsOfFolderToManifest(folderPath, "", knownFileHashes, fileHashes, filesToHash);
+        addFileHashesToManifest(filesToHash, fileHashes);
+        return fileHashes;
+    }
+
+    // Saves the file hashes of an installed package next to its metadata, as the same sorted list of
+    // <relativeFilePath>:<sha256FileHash> entries the package hash is computed from, so that diff
+    // updates only need to hash the files they change.
+    public static void saveFileHashes(String folderPath, Map<String, String> fileHashes) throws IOException {
+        ArrayList<String> manifest = new ArrayList<>(fileHashes.size());
+        for (Map.Entry<String, String> fileHash : fileHashes.entrySet()) {
+            manifest.add(fileHash.getKey() + ":" + fileHash.getValue());
+        }
+
+        Collections.sort(manifest);
+        FileUtils.writeStringToFile(new JSONArray(manifest).toString(),
+                CodePushUtils.appendPathComponent(folderPath, CodePushConstants.FILE_HASHES_FILE_NAME));
+    }
+
+    // Returns the file hashes saved with the package, or an empty map if there are none, as for
+    // packages installed by a version that didn't save them.
+    public static Map<String, String> getFileHashes(String folderPath) {
+        Map<String, String> fileHashes = new HashMap<>();
+        String fileHashesPath = CodePushUtils.appendPathComponent(folderPath, CodePushConstants.FILE_HASHES_FILE_NAME);
+        if (!FileUtils.fileAtPathExists(fileHashesPath)) {
+            return fileHashes;
+        }
+
+        try {
+            JSONArray manifest = new JSONArray(FileUtils.readFileToString(fileHashesPath));
+            for (int i = 0; i < manifest.length(); i++) {
+                String manifestEntry = manifest.getString(i);
+                // File hashes never contain a colon, but paths may.
+                int separatorIndex = manifestEntry.lastIndexOf(':');
+                fileHashes.put(manifestEntry.substring(0, separatorIndex), manifestEntry.substring(separatorIndex + 1));
+            }
+        } catch (IOException | JSONException | IndexOutOfBoundsException e) {
+            CodePushUtils.log("Ignoring unreadable file hashes of " + folderPath + ": " + e.getMessage());
+            fileHashes.clear();
+        }
+
+        return fileHashes;
     }
 
     public static Map<String, Object> verifyAndDecodeJWT(String jwt, PublicKey publicKey) {
+        try {
+            return verifyAndDecodeJWT(jwt, new RSASSAVerifier((RSAPublicKey)publicKey));
+        } catch (ClassCastException ex) {
+            CodePushUtils.log(ex.getMessage());
+            return null;
+        }
+    }
+
+    public static Map<String, Object> verifyAndDecodeJWT(String jwt, JWSVerifier verifier) {
         try {
             SignedJWT signedJWT = SignedJWT.parse(jwt);
-            JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey)publicKey);
             if (signedJWT.verify(verifier)) {
                 Map<String, Object> claims = signedJWT.getJWTClaimsSet().getClaims();
                 CodePushUtils.log("JWT verification succeeded, payload content: " + claims.toString());
@@ -216,6 +463,21 @@ public class CodePushUpdateUtils {
         }
     }
 
+    // Returns the verifier for the public key, or null if it isn't a valid RSA public key.
+    private static synchronized JWSVerifier getVerifier(String stringPublicKey) {
+        if (sVerifier == null || !stringPublicKey.equals(sVerifierPublicKey)) {
+            PublicKey publicKey = parsePublicKey(stringPublicKey);
+            if (!(publicKey instanceof RSAPublicKey)) {
+                return null;
+            }
+
+            sVerifier = new RSASSAVerifier((RSAPublicKey) publicKey);
+            sVerifierPublicKey = stringPublicKey;
+        }
+
+        return sVerifier;
+    }
+
     public static String getSignatureFilePath(String updateFolderPath){
         return CodePushUtils.appendPathComponent(
                 CodePushUtils.appendPathComponent(updateFolderPath, CodePushConstants.CODE_PUSH_FOLDER_PREFIX),
@@ -238,17 +500,24 @@ public class CodePushUpdateUtils {
     public static void verifyUpdateSignature(String folderPath, String packageHash, String stringPublicKey) throws CodePushInvalidUpdateException {
         CodePushUtils.log("Verifying signature for folder path: " + folderPath);
 
-        final PublicKey publicKey = parsePublicKey(stringPublicKey);
-        if (publicKey == null) {
-            throw new CodePushInvalidUpdateException("The update could not be verified because no public key was found.");
-        }
-
         final String signature = getSignature(folderPath);
         if (signature == null) {
             throw new CodePushInvalidUpdateException("The update could not be verified because no signature was found.");
         }
 
-        final Map<String, Object> claims = verifyAndDecodeJWT(signature, publicKey);
+        verifySignature(signature, packageHash, stringPublicKey);
+    }
+
+    // Checks that the signature was made with the private key of stringPublicKey for packageHash. This
+    // is done as soon as the signature is extracted, so that updates that weren't signed by a trusted
+    // party are rejected before the rest of them is extracted and hashed.
+    public static void verifySignature(String signature, String packageHash, String stringPublicKey) throws CodePushInvalidUpdateException {
+        final JWSVerifier verifier = getVerifier(stringPublicKey);
+        if (verifier == null) {
+            throw new CodePushInvalidUpdateException("The update could not be verified because no public key was found.");
+        }
+
+        final Map<String, Object> claims = verifyAndDecodeJWT(signature, verifier);
         if (claims == null) {
             throw new CodePushInvalidUpdateException("The update could not be verified because it was not signed by a trusted party.");
         }
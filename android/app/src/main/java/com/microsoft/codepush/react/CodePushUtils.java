@@ -28,30 +28,25 @@ public class CodePushUtils {
         return new File(basePath, appendPathComponent).getAbsolutePath();
     }
 
+    // The converters below read every value once with opt(), which neither throws nor looks the key up
+    // a second time, and test for the types of values that package metadata mostly holds first.
     public static WritableArray convertJsonArrayToWritable(JSONArray jsonArr) {
         WritableArray arr = Arguments.createArray();
-        for (int i=0; i<jsonArr.length(); i++) {
-            Object obj = null;
-            try {
-                obj = jsonArr.get(i);
-            } catch (JSONException jsonException) {
-                // Should not happen.
-                throw new CodePushUnknownException(i + " should be within bounds of array " + jsonArr.toString(), jsonException);
-            }
-
-            if (obj instanceof JSONObject)
-                arr.pushMap(convertJsonObjectToWritable((JSONObject) obj));
-            else if (obj instanceof JSONArray)
-                arr.pushArray(convertJsonArrayToWritable((JSONArray) obj));
-            else if (obj instanceof String)
+        for (int i = 0, length = jsonArr.length(); i < length; i++) {
+            Object obj = jsonArr.opt(i);
+            if (obj instanceof String)
                 arr.pushString((String) obj);
-            else if (obj instanceof Double)
-                arr.pushDouble((Double) obj);
-            else if (obj instanceof Integer)
-                arr.pushInt((Integer) obj);
             else if (obj instanceof Boolean)
                 arr.pushBoolean((Boolean) obj);
-            else if (obj == null)
+            else if (obj instanceof Integer)
+                arr.pushInt((Integer) obj);
+            else if (obj instanceof Number)
+                arr.pushDouble(((Number) obj).doubleValue());
+            else if (obj instanceof JSONObject)
+                arr.pushMap(convertJsonObjectToWritable((JSONObject) obj));
+            else if (obj instanceof JSONArray)
+                arr.pushArray(convertJsonArrayToWritable((JSONArray) obj));
+            else if (obj == null || obj == JSONObject.NULL)
                 arr.pushNull();
             else
                 throw new CodePushUnknownException("Unrecognized object: " + obj);
@@ -62,30 +57,25 @@ public class CodePushUtils {
 
     public static WritableMap convertJsonObjectToWritable(JSONObject jsonObj) {
         WritableMap map = Arguments.createMap();
+        // Some org.json versions declare keys() with a raw Iterator.
+        @SuppressWarnings("unchecked")
         Iterator<String> it = jsonObj.keys();
-        while(it.hasNext()){
+        while (it.hasNext()) {
             String key = it.next();
-            Object obj = null;
-            try {
-                obj = jsonObj.get(key);
-            } catch (JSONException jsonException) {
-                // Should not happen.
-                throw new CodePushUnknownException("Key " + key + " should exist in " + jsonObj.toString() + ".", jsonException);
-            }
-
-            if (obj instanceof JSONObject)
-                map.putMap(key, convertJsonObjectToWritable((JSONObject) obj));
-            else if (obj instanceof JSONArray)
-                map.putArray(key, convertJsonArrayToWritable((JSONArray) obj));
-            else if (obj instanceof String)
+            Object obj = jsonObj.opt(key);
+            if (obj instanceof String)
                 map.putString(key, (String) obj);
-            else if (obj instanceof Double)
-                map.putDouble(key, (Double) obj);
-            else if (obj instanceof Integer)
-                map.putInt(key, (Integer) obj);
             else if (obj instanceof Boolean)
                 map.putBoolean(key, (Boolean) obj);
-            else if (obj == null)
+            else if (obj instanceof Integer)
+                map.putInt(key, (Integer) obj);
+            else if (obj instanceof Number)
+                map.putDouble(key, ((Number) obj).doubleValue());
+            else if (obj instanceof JSONObject)
+                map.putMap(key, convertJsonObjectToWritable((JSONObject) obj));
+            else if (obj instanceof JSONArray)
+                map.putArray(key, convertJsonArrayToWritable((JSONArray) obj));
+            else if (obj == null || obj == JSONObject.NULL)
                 map.putNull(key);
             else
                 throw new CodePushUnknownException("Unrecognized object: " + obj);
@@ -0,0 +1,66 @@
+package com.microsoft.codepush.react;
+
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+// Decodes zstd-compressed update archives with a decoder that the app bundles itself, so that apps
+// which don't publish such updates don't pay for the native library. Either zstd-jni
+// (com.github.luben:zstd-jni) or aircompressor (io.airlift:aircompressor) can be used.
+class CodePushZstd {
+
+    private static final String[] DECODER_CLASS_NAMES = {
+            "com.github.luben.zstd.ZstdInputStream",
+            "io.airlift.compress.zstd.ZstdInputStream"
+    };
+
+    // Zstd frames start with 0xFD2FB528 in little-endian order.
+    private static final int FRAME_MAGIC_NUMBER = 0x28B52FFD;
+
+    private static Constructor<? extends InputStream> sDecoderConstructor;
+    private static boolean sIsDecoderLoaded = false;
+
+    static boolean isZstdHeader(int header) {
+        return header == FRAME_MAGIC_NUMBER;
+    }
+
+    // Returns a stream of the decompressed contents of compressedStream.
+    static InputStream createInputStream(InputStream compressedStream) {
+        Constructor<? extends InputStream> decoderConstructor;
+        synchronized (CodePushZstd.class) {
+            decoderConstructor = getDecoderConstructor();
+        }
+
+        if (decoderConstructor == null) {
+            throw new CodePushInvalidUpdateException("Update is invalid - It is compressed with zstd, but no zstd decoder " +
+                    "is available. Add zstd-jni (com.github.luben:zstd-jni) to your app's dependencies to install such updates.");
+        }
+
+        try {
+            return decoderConstructor.newInstance(compressedStream);
+        } catch (InvocationTargetException e) {
+            throw new CodePushUnknownException("Unable to create the zstd decoder.", e.getCause());
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new CodePushUnknownException("Unable to create the zstd decoder.", e);
+        }
+    }
+
+    private static Constructor<? extends InputStream> getDecoderConstructor() {
+        if (sIsDecoderLoaded) {
+            return sDecoderConstructor;
+        }
+
+        sIsDecoderLoaded = true;
+        for (String decoderClassName : DECODER_CLASS_NAMES) {
+            try {
+                sDecoderConstructor = Class.forName(decoderClassName).asSubclass(InputStream.class)
+                        .getConstructor(InputStream.class);
+                return sDecoderConstructor;
+            } catch (ClassNotFoundException | NoSuchMethodException | ClassCastException | LinkageError e) {
+                // Try the next decoder.
+            }
+        }
+
+        return null;
+    }
+}
@@ -3,6 +3,8 @@ package com.microsoft.codepush.react;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeMap;
 
+// The progress of a download. DownloadProgressReporter updates a single instance in place for the
+// whole download, so callbacks must copy what they need instead of keeping a reference to it.
 class DownloadProgress {
     private long mTotalBytes;
     private long mReceivedBytes;
@@ -12,14 +14,27 @@ class DownloadProgress {
         mReceivedBytes = receivedBytes;
     }
 
-    public WritableMap createWritableMap() {
+    void set(long totalBytes, long receivedBytes) {
+        mTotalBytes = totalBytes;
+        mReceivedBytes = receivedBytes;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    public long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    public static WritableMap createWritableMap(long totalBytes, long receivedBytes) {
         WritableMap map = new WritableNativeMap();
-        if (mTotalBytes < Integer.MAX_VALUE) {
-            map.putInt("totalBytes", (int) mTotalBytes);
-            map.putInt("receivedBytes", (int) mReceivedBytes);
+        if (totalBytes < Integer.MAX_VALUE) {
+            map.putInt("totalBytes", (int) totalBytes);
+            map.putInt("receivedBytes", (int) receivedBytes);
         } else {
-            map.putDouble("totalBytes", mTotalBytes);
-            map.putDouble("receivedBytes", mReceivedBytes);
+            map.putDouble("totalBytes", totalBytes);
+            map.putDouble("receivedBytes", receivedBytes);
         }
         return map;
     }
@@ -0,0 +1,69 @@
+package com.microsoft.codepush.react;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Reports download progress as chunks are read from the wrapped response stream, for consumers
+// such as the streaming zip extraction that read the response directly instead of copying it, and
+// stops the download as soon as it is paused or canceled.
+class DownloadProgressInputStream extends FilterInputStream {
+    private long mTotalBytes;
+    private long mReceivedBytes;
+    private DownloadProgressReporter mProgressReporter;
+    private CodePushDownloadHandle mDownloadHandle;
+
+    public DownloadProgressInputStream(InputStream inputStream, long totalBytes, long receivedBytes,
+                                       DownloadProgressReporter progressReporter, CodePushDownloadHandle downloadHandle) {
+        super(inputStream);
+        mTotalBytes = totalBytes;
+        mReceivedBytes = receivedBytes;
+        mProgressReporter = progressReporter;
+        mDownloadHandle = downloadHandle;
+    }
+
+    public long getReceivedBytes() {
+        return mReceivedBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int data = super.read();
+        if (data >= 0) {
+            onBytesRead(1);
+        }
+
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int numBytesRead = super.read(buffer, offset, length);
+        if (numBytesRead > 0) {
+            onBytesRead(numBytesRead);
+        }
+
+        return numBytesRead;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long numBytesSkipped = super.skip(byteCount);
+        if (numBytesSkipped > 0) {
+            onBytesRead(numBytesSkipped);
+        }
+
+        return numBytesSkipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void onBytesRead(long numBytesRead) {
+        mDownloadHandle.throwIfInterrupted();
+        mReceivedBytes += numBytesRead;
+        mProgressReporter.report(mTotalBytes, mReceivedBytes);
+    }
+}
@@ -0,0 +1,55 @@
+package com.microsoft.codepush.react;
+
+// Passes the progress of a download on to its callback only once it has advanced by at least the
+// configured number of bytes, percentage of the total size and time since the last report, instead
+// of after every chunk that is read. A granularity of 0 disables that condition. The completion of
+// the download is always reported. The same DownloadProgress is updated and passed to every call,
+// so a download doesn't allocate anything to report its progress.
+class DownloadProgressReporter {
+    private final DownloadProgressCallback mProgressCallback;
+    private final long mByteGranularity;
+    private final int mPercentGranularity;
+    private final long mTimeGranularityNanos;
+    private final DownloadProgress mDownloadProgress = new DownloadProgress(-1, -1);
+    private long mReportedTime;
+
+    public DownloadProgressReporter(DownloadProgressCallback progressCallback, long byteGranularity,
+                                    int percentGranularity, long timeGranularityMs) {
+        mProgressCallback = progressCallback;
+        mByteGranularity = byteGranularity;
+        mPercentGranularity = percentGranularity;
+        mTimeGranularityNanos = timeGranularityMs * 1000000;
+    }
+
+    public void report(long totalBytes, long receivedBytes) {
+        long reportedBytes = mDownloadProgress.getReceivedBytes();
+        if (totalBytes == mDownloadProgress.getTotalBytes() && receivedBytes == reportedBytes) {
+            return;
+        }
+
+        boolean isCompleted = totalBytes == receivedBytes;
+        if (!isCompleted) {
+            long advancedBytes = receivedBytes - Math.max(reportedBytes, 0);
+            if (advancedBytes < mByteGranularity) {
+                return;
+            }
+
+            // The percentage can't be told for responses that don't declare their length.
+            if (totalBytes > 0 && advancedBytes * 100 < mPercentGranularity * totalBytes) {
+                return;
+            }
+        }
+
+        if (mTimeGranularityNanos > 0) {
+            long time = System.nanoTime();
+            if (!isCompleted && reportedBytes >= 0 && time - mReportedTime < mTimeGranularityNanos) {
+                return;
+            }
+
+            mReportedTime = time;
+        }
+
+        mDownloadProgress.set(totalBytes, receivedBytes);
+        mProgressCallback.call(mDownloadProgress);
+    }
+}
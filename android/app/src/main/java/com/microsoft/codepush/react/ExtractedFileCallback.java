@@ -0,0 +1,8 @@
+package com.microsoft.codepush.react;
+
+import java.io.File;
+import java.io.IOException;
+
+interface ExtractedFileCallback {
+    void call(String relativePath, File file) throws IOException;
+}
@@ -1,19 +1,29 @@
 package com.microsoft.codepush.react;
 
+import android.os.Build;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public class FileUtils {
 
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
     private static final int WRITE_BUFFER_SIZE = 1024 * 8;
+    private static final int TAR_BLOCK_SIZE = 512;
+    private static final int TAR_MAX_HEADER_DATA_SIZE = 1024 * 1024;
 
     public static void copyDirectoryContents(String sourceDirectoryPath, String destinationDirectoryPath) throws IOException {
         File sourceDir = new File(sourceDirectoryPath);
@@ -29,31 +39,112 @@ public class FileUtils {
                         CodePushUtils.appendPathComponent(destinationDirectoryPath, sourceFile.getName()));
             } else {
                 File destFile = new File(destDir, sourceFile.getName());
-                FileInputStream fromFileStream = null;
-                BufferedInputStream fromBufferedStream = null;
-                FileOutputStream destStream = null;
-                byte[] buffer = new byte[WRITE_BUFFER_SIZE];
-                try {
-                    fromFileStream = new FileInputStream(sourceFile);
-                    fromBufferedStream = new BufferedInputStream(fromFileStream);
-                    destStream = new FileOutputStream(destFile);
-                    int bytesRead;
-                    while ((bytesRead = fromBufferedStream.read(buffer)) > 0) {
-                        destStream.write(buffer, 0, bytesRead);
-                    }
-                } finally {
-                    try {
-                        if (fromFileStream != null) fromFileStream.close();
-                        if (fromBufferedStream != null) fromBufferedStream.close();
-                        if (destStream != null) destStream.close();
-                    } catch (IOException e) {
-                        throw new CodePushUnknownException("Error closing IO resources.", e);
-                    }
+
+                // The destination may be a hard link shared with another package, so it must be
+                // replaced rather than overwritten in place.
+                if (destFile.exists()) {
+                    destFile.delete();
                 }
+
+                copyFile(sourceFile, destFile);
             }
         }
     }
 
+    // Moves the contents of the source directory into the destination directory by renaming them,
+    // falling back to copying files that can't be renamed. The source directory is removed.
+    public static void moveDirectoryContents(String sourceDirectoryPath, String destinationDirectoryPath) throws IOException {
+        File sourceDir = new File(sourceDirectoryPath);
+        File destDir = new File(destinationDirectoryPath);
+        if (!destDir.exists() && sourceDir.renameTo(destDir)) {
+            return;
+        }
+
+        destDir.mkdirs();
+        for (File sourceFile : sourceDir.listFiles()) {
+            File destFile = new File(destDir, sourceFile.getName());
+            if (sourceFile.isDirectory()) {
+                moveDirectoryContents(sourceFile.getAbsolutePath(), destFile.getAbsolutePath());
+                continue;
+            }
+
+            if (destFile.exists()) {
+                destFile.delete();
+            }
+
+            if (!sourceFile.renameTo(destFile)) {
+                copyFile(sourceFile, destFile);
+            }
+        }
+
+        deleteFileOrFolderSilently(sourceDir);
+    }
+
+    public static void copyFile(File sourceFile, File destFile) throws IOException {
+        FileInputStream fromFileStream = null;
+        BufferedInputStream fromBufferedStream = null;
+        FileOutputStream destStream = null;
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        try {
+            fromFileStream = new FileInputStream(sourceFile);
+            fromBufferedStream = new BufferedInputStream(fromFileStream);
+            destStream = new FileOutputStream(destFile);
+            int bytesRead;
+            while ((bytesRead = fromBufferedStream.read(buffer)) > 0) {
+                destStream.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            try {
+                if (fromFileStream != null) fromFileStream.close();
+                if (fromBufferedStream != null) fromBufferedStream.close();
+                if (destStream != null) destStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    public static boolean isHardLinkSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    // Makes link refer to the same data as existingFile. Returns false if hard links are not
+    // supported on this device or file system, in which case nothing is created.
+    public static boolean createHardLink(File existingFile, File link) {
+        if (!isHardLinkSupported()) {
+            return false;
+        }
+
+        return FileUtilsApi21.createHardLink(existingFile, link);
+    }
+
+    // Returns the number of directory entries that refer to the data of the file, or 1 if it
+    // can't be determined.
+    public static long getHardLinkCount(File file) {
+        if (!isHardLinkSupported()) {
+            return 1;
+        }
+
+        return FileUtilsApi21.getHardLinkCount(file);
+    }
+
+    // Brings the contents of the file into the page cache by mapping it and touching every page, which
+    // avoids copying them to the heap. Returns the size of the file.
+    public static long loadIntoPageCache(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > 0) {
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size).load();
+            }
+
+            return size;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
     public static void deleteDirectoryAtPath(String directoryPath) {
         if (directoryPath == null) {
             CodePushUtils.log("deleteDirectoryAtPath attempted with null directoryPath");
@@ -105,32 +196,60 @@ public class FileUtils {
 
     public static String readFileToString(String filePath) throws IOException {
         FileInputStream fin = null;
-        BufferedReader reader = null;
         try {
             File fl = new File(filePath);
             fin = new FileInputStream(fl);
-            reader = new BufferedReader(new InputStreamReader(fin));
-            StringBuilder sb = new StringBuilder();
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
-            }
-
-            return sb.toString();
+            return readStreamToString(fin);
         } finally {
-            if (reader != null) reader.close();
             if (fin != null) fin.close();
         }
     }
 
-    public static void unzipFile(File zipFile, String destination) throws IOException {
+    // Reads the stream to its end, without closing it.
+    public static String readStreamToString(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder sb = new StringBuilder();
+        String line = null;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+
+        return sb.toString();
+    }
+
+    public static Map<String, String> unzipFile(File zipFile, String destination) throws IOException {
         FileInputStream fileStream = null;
         BufferedInputStream bufferedStream = null;
-        ZipInputStream zipStream = null;
         try {
             fileStream = new FileInputStream(zipFile);
             bufferedStream = new BufferedInputStream(fileStream);
-            zipStream = new ZipInputStream(bufferedStream);
+            return unzipStream(bufferedStream, destination);
+        } finally {
+            try {
+                if (bufferedStream != null) bufferedStream.close();
+                if (fileStream != null) fileStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    // Extracts the zip archive read from inputStream into destination. The stream is consumed up to
+    // its end (including the central directory, which ZipInputStream never reads) and then closed.
+    // Returns the SHA-256 hash of every extracted file, keyed by its path relative to destination,
+    // so that the contents don't need to be read again to verify them.
+    public static Map<String, String> unzipStream(InputStream inputStream, String destination) throws IOException {
+        return unzipStream(inputStream, destination, null);
+    }
+
+    // Same as above, but calls extractedFileCallback, if not null, as soon as each file is extracted.
+    public static Map<String, String> unzipStream(InputStream inputStream, String destination,
+                                                  ExtractedFileCallback extractedFileCallback) throws IOException {
+        ZipInputStream zipStream = null;
+        try {
+            zipStream = new ZipInputStream(inputStream);
+            MessageDigest messageDigest = CodePushUpdateUtils.createHashDigest();
+            Map<String, String> fileHashes = new HashMap<>();
             ZipEntry entry;
 
             File destinationFolder = new File(destination);
@@ -139,11 +258,12 @@ public class FileUtils {
             }
             
             destinationFolder.mkdirs();
+            String destinationPath = destinationFolder.getCanonicalPath();
 
             byte[] buffer = new byte[WRITE_BUFFER_SIZE];
             while ((entry = zipStream.getNextEntry()) != null) {
-                String fileName = entry.getName();
-                File file = new File(destinationFolder, fileName);
+                File file = new File(destinationFolder, entry.getName());
+                String fileName = getExtractedFilePath(destinationPath, file);
                 if (entry.isDirectory()) {
                     file.mkdirs();
                 } else {
@@ -157,19 +277,48 @@ public class FileUtils {
                         int numBytesRead;
                         while ((numBytesRead = zipStream.read(buffer)) != -1) {
                             fout.write(buffer, 0, numBytesRead);
+                            messageDigest.update(buffer, 0, numBytesRead);
                         }
                     } finally {
                         fout.close();
                     }
+
+                    fileHashes.put(fileName, CodePushUpdateUtils.formatHash(messageDigest.digest()));
+                    if (extractedFileCallback != null) {
+                        extractedFileCallback.call(fileName, file);
+                    }
                 }
                 long time = entry.getTime();
                 if (time > 0) {
                     file.setLastModified(time);
                 }
             }
+
+            while (inputStream.read(buffer) != -1) ;
+            return fileHashes;
         } finally {
             try {
                 if (zipStream != null) zipStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    public static Map<String, String> extractTarZstdFile(File archiveFile, String destination) throws IOException {
+        return extractTarZstdFile(archiveFile, destination, null);
+    }
+
+    public static Map<String, String> extractTarZstdFile(File archiveFile, String destination,
+                                                         ExtractedFileCallback extractedFileCallback) throws IOException {
+        FileInputStream fileStream = null;
+        BufferedInputStream bufferedStream = null;
+        try {
+            fileStream = new FileInputStream(archiveFile);
+            bufferedStream = new BufferedInputStream(fileStream);
+            return extractTarZstdStream(bufferedStream, destination, extractedFileCallback);
+        } finally {
+            try {
                 if (bufferedStream != null) bufferedStream.close();
                 if (fileStream != null) fileStream.close();
             } catch (IOException e) {
@@ -178,13 +327,288 @@ public class FileUtils {
         }
     }
 
+    // Extracts the zstd-compressed tar archive read from inputStream into destination, the same way
+    // unzipStream extracts a zip archive, and returns the hashes of the extracted files.
+    public static Map<String, String> extractTarZstdStream(InputStream inputStream, String destination) throws IOException {
+        return extractTarZstdStream(inputStream, destination, null);
+    }
+
+    // Same as above, but calls extractedFileCallback, if not null, as soon as each file is extracted.
+    public static Map<String, String> extractTarZstdStream(InputStream inputStream, String destination,
+                                                           ExtractedFileCallback extractedFileCallback) throws IOException {
+        InputStream tarStream = null;
+        try {
+            tarStream = new BufferedInputStream(CodePushZstd.createInputStream(inputStream), TAR_BLOCK_SIZE * 16);
+            Map<String, String> fileHashes = untarStream(tarStream, destination, extractedFileCallback);
+
+            // Consume any bytes after the end of the frame, so that the whole download is accounted for.
+            byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+            while (inputStream.read(buffer) != -1) ;
+            return fileHashes;
+        } finally {
+            try {
+                if (tarStream != null) tarStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
+    // Extracts the ustar (POSIX.1-1988) archive read from inputStream into destination, including
+    // the long paths of GNU and pax archives. Only regular files and directories are extracted.
+    private static Map<String, String> untarStream(InputStream inputStream, String destination,
+                                                   ExtractedFileCallback extractedFileCallback) throws IOException {
+        MessageDigest messageDigest = CodePushUpdateUtils.createHashDigest();
+        Map<String, String> fileHashes = new HashMap<>();
+
+        File destinationFolder = new File(destination);
+        if (destinationFolder.exists()) {
+            deleteFileOrFolderSilently(destinationFolder);
+        }
+
+        destinationFolder.mkdirs();
+        String destinationPath = destinationFolder.getCanonicalPath();
+
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        String longFileName = null;
+        while (readTarBlock(inputStream, header)) {
+            if (isZeroBlock(header)) {
+                // The archive ends with two zero blocks.
+                break;
+            }
+
+            String fileName = longFileName;
+            longFileName = null;
+            if (fileName == null) {
+                fileName = readTarString(header, 0, 100);
+                String prefix = readTarString(header, 345, 155);
+                if (!prefix.isEmpty()) {
+                    fileName = prefix + "/" + fileName;
+                }
+            }
+
+            // Archives created with "tar -C <folder> ." name their entries relative to ".".
+            while (fileName.startsWith("./")) {
+                fileName = fileName.substring(2);
+            }
+
+            long size = readTarNumber(header, 124, 12);
+            long paddedSize = (size + TAR_BLOCK_SIZE - 1) / TAR_BLOCK_SIZE * TAR_BLOCK_SIZE;
+            char type = (char) header[156];
+            if (type == 'L' || type == 'x') {
+                // The path of the next entry, as a GNU long name or in a pax extended header.
+                byte[] data = readTarData(inputStream, size, paddedSize);
+                longFileName = type == 'L' ? readTarString(data, 0, data.length) : readPaxPath(data);
+                continue;
+            }
+
+            File file = new File(destinationFolder, fileName);
+            fileName = getExtractedFilePath(destinationPath, file);
+            if (type == '5') {
+                file.mkdirs();
+            } else if (type == '0' || type == '\0') {
+                File parent = file.getParentFile();
+                if (!parent.exists()) {
+                    parent.mkdirs();
+                }
+
+                FileOutputStream fout = new FileOutputStream(file);
+                try {
+                    long remainingBytes = size;
+                    while (remainingBytes > 0) {
+                        int numBytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remainingBytes));
+                        if (numBytesRead < 0) {
+                            throw new CodePushInvalidUpdateException("Update is invalid - The archive is truncated.");
+                        }
+
+                        fout.write(buffer, 0, numBytesRead);
+                        messageDigest.update(buffer, 0, numBytesRead);
+                        remainingBytes -= numBytesRead;
+                    }
+                } finally {
+                    fout.close();
+                }
+
+                fileHashes.put(fileName, CodePushUpdateUtils.formatHash(messageDigest.digest()));
+                if (extractedFileCallback != null) {
+                    extractedFileCallback.call(fileName, file);
+                }
+
+                skipTarBytes(inputStream, paddedSize - size);
+            } else {
+                // Links and special files have no place in an update.
+                skipTarBytes(inputStream, paddedSize);
+                continue;
+            }
+
+            long time = readTarNumber(header, 136, 12) * 1000;
+            if (time > 0) {
+                file.setLastModified(time);
+            }
+        }
+
+        return fileHashes;
+    }
+
+    // Returns the path of an extracted file relative to the destination, as the file system resolves
+    // it. Entries that are spelled differently but are written to the same file, like "a/b" and
+    // "./a/b", so get the same hash key, which always holds the hash of the last one written.
+    private static String getExtractedFilePath(String destinationPath, File file) throws IOException {
+        String filePath = file.getCanonicalPath();
+        if (filePath.equals(destinationPath)) {
+            // The entry of the root folder, e.g. "./".
+            return "";
+        }
+
+        if (!filePath.startsWith(destinationPath + File.separator)) {
+            throw new CodePushInvalidUpdateException("Update is invalid - The archive contains the entry " + file.getPath() + ", which is outside of the update.");
+        }
+
+        return filePath.substring(destinationPath.length() + 1);
+    }
+
+    private static boolean readTarBlock(InputStream inputStream, byte[] block) throws IOException {
+        int offset = 0;
+        int numBytesRead;
+        while (offset < block.length && (numBytesRead = inputStream.read(block, offset, block.length - offset)) >= 0) {
+            offset += numBytesRead;
+        }
+
+        if (offset > 0 && offset < block.length) {
+            throw new CodePushInvalidUpdateException("Update is invalid - The archive is truncated.");
+        }
+
+        return offset == block.length;
+    }
+
+    private static byte[] readTarData(InputStream inputStream, long size, long paddedSize) throws IOException {
+        if (size > TAR_MAX_HEADER_DATA_SIZE) {
+            throw new CodePushInvalidUpdateException("Update is invalid - The archive has an oversized header.");
+        }
+
+        byte[] data = new byte[(int) size];
+        int offset = 0;
+        int numBytesRead;
+        while (offset < data.length && (numBytesRead = inputStream.read(data, offset, data.length - offset)) >= 0) {
+            offset += numBytesRead;
+        }
+
+        if (offset < data.length) {
+            throw new CodePushInvalidUpdateException("Update is invalid - The archive is truncated.");
+        }
+
+        skipTarBytes(inputStream, paddedSize - size);
+        return data;
+    }
+
+    private static void skipTarBytes(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long numBytesSkipped = inputStream.skip(count);
+            if (numBytesSkipped <= 0) {
+                if (inputStream.read() < 0) {
+                    throw new CodePushInvalidUpdateException("Update is invalid - The archive is truncated.");
+                }
+
+                numBytesSkipped = 1;
+            }
+
+            count -= numBytesSkipped;
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static String readTarString(byte[] data, int offset, int length) throws IOException {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+
+        return new String(data, offset, end - offset, "UTF-8");
+    }
+
+    // Numbers are octal, or big-endian binary if the high bit of the first byte is set.
+    private static long readTarNumber(byte[] data, int offset, int length) {
+        long value = 0;
+        if ((data[offset] & 0x80) != 0) {
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (data[i] & 0xff);
+            }
+
+            return value;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '7') {
+                value = (value << 3) | (b - '0');
+            } else if (b != ' ' || value != 0) {
+                break;
+            }
+        }
+
+        return value;
+    }
+
+    // Pax extended headers are a sequence of "<length> <key>=<value>\n" records.
+    private static String readPaxPath(byte[] data) throws IOException {
+        String path = null;
+        int offset = 0;
+        while (offset < data.length) {
+            int spaceIndex = offset;
+            while (spaceIndex < data.length && data[spaceIndex] != ' ') {
+                spaceIndex++;
+            }
+
+            int recordLength;
+            try {
+                recordLength = Integer.parseInt(new String(data, offset, spaceIndex - offset, "UTF-8"));
+            } catch (NumberFormatException e) {
+                throw new CodePushInvalidUpdateException("Update is invalid - The archive has a malformed pax header.");
+            }
+
+            if (recordLength <= spaceIndex - offset || offset + recordLength > data.length) {
+                throw new CodePushInvalidUpdateException("Update is invalid - The archive has a malformed pax header.");
+            }
+
+            String record = new String(data, spaceIndex + 1, offset + recordLength - spaceIndex - 2, "UTF-8");
+            if (record.startsWith("path=")) {
+                path = record.substring("path=".length());
+            }
+
+            offset += recordLength;
+        }
+
+        return path;
+    }
+
+    // Writes the content to a temporary file which then replaces the destination, so that readers
+    // see either the old or the new content even if the process dies halfway through.
     public static void writeStringToFile(String content, String filePath) throws IOException {
-        PrintWriter out = null;
+        File file = new File(filePath);
+        File tempFile = new File(filePath + TEMP_FILE_SUFFIX);
+        FileOutputStream out = null;
         try {
-            out = new PrintWriter(filePath);
-            out.print(content);
+            out = new FileOutputStream(tempFile);
+            out.write(content.getBytes("UTF-8"));
+            out.flush();
+            out.getFD().sync();
         } finally {
             if (out != null) out.close();
         }
+
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Unable to replace " + filePath + ".");
+        }
     }
 }
@@ -0,0 +1,31 @@
+package com.microsoft.codepush.react;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+
+// Kept apart from FileUtils so that older devices never have to load the android.system classes.
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class FileUtilsApi21 {
+
+    static boolean createHardLink(File existingFile, File link) {
+        try {
+            Os.link(existingFile.getAbsolutePath(), link.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            CodePushUtils.log("Unable to create hard link " + link.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    static long getHardLinkCount(File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_nlink;
+        } catch (ErrnoException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.microsoft.codepush.react;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+// Applies bsdiff 4.x binary patches, which consist of a 32 byte header followed by the control, diff
+// and extra blocks. Standard patches, as written by the bsdiff tool, have the magic "BSDIFF40" and
+// compress every block with bzip2, see CodePushBzip2. Patches with the magic "BSDIFF4R" store the
+// blocks uncompressed instead, since the update archive that carries them is compressed already.
+public class PatchUtils {
+
+    private static final String PATCH_MAGIC = "BSDIFF40";
+    private static final String UNCOMPRESSED_PATCH_MAGIC = "BSDIFF4R";
+    private static final int PATCH_HEADER_SIZE = 32;
+    private static final int PATCH_BUFFER_SIZE = 1024 * 8;
+
+    // Writes the result of applying patchFile to oldFile into newFile and returns its SHA-256 hash.
+    public static String applyPatch(File oldFile, File patchFile, File newFile) throws IOException {
+        byte[] header = new byte[PATCH_HEADER_SIZE];
+        readPatchBlock(patchFile, 0, header);
+        String magic = new String(header, 0, PATCH_MAGIC.length(), "US-ASCII");
+        boolean isCompressed = PATCH_MAGIC.equals(magic);
+        if (!isCompressed && !UNCOMPRESSED_PATCH_MAGIC.equals(magic)) {
+            throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is not in a supported format.");
+        }
+
+        long controlBlockSize = readOffset(header, 8);
+        long diffBlockSize = readOffset(header, 16);
+        long newSize = readOffset(header, 24);
+        if (controlBlockSize < 0 || diffBlockSize < 0 || newSize < 0
+                || PATCH_HEADER_SIZE + controlBlockSize + diffBlockSize > patchFile.length()) {
+            throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is corrupted.");
+        }
+
+        DataInputStream controlStream = null;
+        InputStream diffStream = null;
+        InputStream extraStream = null;
+        RandomAccessFile oldData = null;
+        BufferedOutputStream newStream = null;
+        MessageDigest messageDigest = CodePushUpdateUtils.createHashDigest();
+        try {
+            controlStream = new DataInputStream(openPatchBlock(patchFile, PATCH_HEADER_SIZE, isCompressed));
+            diffStream = openPatchBlock(patchFile, PATCH_HEADER_SIZE + controlBlockSize, isCompressed);
+            extraStream = openPatchBlock(patchFile, PATCH_HEADER_SIZE + controlBlockSize + diffBlockSize, isCompressed);
+            oldData = new RandomAccessFile(oldFile, "r");
+            newFile.getParentFile().mkdirs();
+            newStream = new BufferedOutputStream(new FileOutputStream(newFile), PATCH_BUFFER_SIZE);
+
+            long oldSize = oldData.length();
+            long oldPosition = 0;
+            long newPosition = 0;
+            byte[] control = new byte[24];
+            byte[] buffer = new byte[PATCH_BUFFER_SIZE];
+            byte[] oldBuffer = new byte[PATCH_BUFFER_SIZE];
+            while (newPosition < newSize) {
+                controlStream.readFully(control);
+                long diffLength = readOffset(control, 0);
+                long extraLength = readOffset(control, 8);
+                long oldSeek = readOffset(control, 16);
+                if (diffLength < 0 || extraLength < 0 || newPosition + diffLength + extraLength > newSize) {
+                    throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is corrupted.");
+                }
+
+                // Add the diff bytes to the bytes of the old file at the current position.
+                long remaining = diffLength;
+                while (remaining > 0) {
+                    int chunkLength = (int) Math.min(remaining, PATCH_BUFFER_SIZE);
+                    readFully(diffStream, buffer, chunkLength);
+                    readOldData(oldData, oldSize, oldPosition, oldBuffer, chunkLength);
+                    for (int i = 0; i < chunkLength; i++) {
+                        buffer[i] += oldBuffer[i];
+                    }
+
+                    newStream.write(buffer, 0, chunkLength);
+                    messageDigest.update(buffer, 0, chunkLength);
+                    oldPosition += chunkLength;
+                    remaining -= chunkLength;
+                }
+
+                // Copy the extra bytes, which have no counterpart in the old file.
+                remaining = extraLength;
+                while (remaining > 0) {
+                    int chunkLength = (int) Math.min(remaining, PATCH_BUFFER_SIZE);
+                    readFully(extraStream, buffer, chunkLength);
+                    newStream.write(buffer, 0, chunkLength);
+                    messageDigest.update(buffer, 0, chunkLength);
+                    remaining -= chunkLength;
+                }
+
+                newPosition += diffLength + extraLength;
+                oldPosition += oldSeek;
+            }
+        } catch (EOFException e) {
+            throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is truncated.");
+        } finally {
+            try {
+                if (controlStream != null) controlStream.close();
+                if (diffStream != null) diffStream.close();
+                if (extraStream != null) extraStream.close();
+                if (oldData != null) oldData.close();
+                if (newStream != null) newStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+
+        return CodePushUpdateUtils.formatHash(messageDigest.digest());
+    }
+
+    private static InputStream openPatchBlock(final File patchFile, long offset, boolean isCompressed) throws IOException {
+        InputStream blockStream = openPatchBlock(patchFile, offset);
+        if (!isCompressed) {
+            return blockStream;
+        }
+
+        InputStream decoderStream;
+        try {
+            decoderStream = CodePushBzip2.createInputStream(blockStream);
+        } catch (IOException e) {
+            blockStream.close();
+            throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is corrupted.");
+        } catch (RuntimeException e) {
+            blockStream.close();
+            throw e;
+        }
+
+        // The decoder reports damaged or truncated blocks as plain IOExceptions.
+        return new BufferedInputStream(new FilterInputStream(decoderStream) {
+            @Override
+            public int read() throws IOException {
+                try {
+                    return super.read();
+                } catch (EOFException e) {
+                    throw e;
+                } catch (IOException e) {
+                    throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is corrupted.");
+                }
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                try {
+                    return super.read(buffer, offset, length);
+                } catch (EOFException e) {
+                    throw e;
+                } catch (IOException e) {
+                    throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is corrupted.");
+                }
+            }
+        }, PATCH_BUFFER_SIZE);
+    }
+
+    private static InputStream openPatchBlock(File patchFile, long offset) throws IOException {
+        InputStream blockStream = new BufferedInputStream(new FileInputStream(patchFile), PATCH_BUFFER_SIZE);
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = blockStream.skip(remaining);
+            if (skipped <= 0) {
+                blockStream.close();
+                throw new EOFException();
+            }
+
+            remaining -= skipped;
+        }
+
+        return blockStream;
+    }
+
+    private static void readPatchBlock(File patchFile, long offset, byte[] block) throws IOException {
+        InputStream blockStream = openPatchBlock(patchFile, offset);
+        try {
+            readFully(blockStream, block, block.length);
+        } catch (EOFException e) {
+            throw new CodePushInvalidUpdateException("The patch " + patchFile.getName() + " is truncated.");
+        } finally {
+            blockStream.close();
+        }
+    }
+
+    private static void readFully(InputStream stream, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int numBytesRead = stream.read(buffer, offset, length - offset);
+            if (numBytesRead < 0) {
+                throw new EOFException();
+            }
+
+            offset += numBytesRead;
+        }
+    }
+
+    // Bytes outside of the old file are treated as zeros, as in bspatch.
+    private static void readOldData(RandomAccessFile oldData, long oldSize, long position, byte[] buffer, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            buffer[i] = 0;
+        }
+
+        long start = Math.max(position, 0);
+        long end = Math.min(position + length, oldSize);
+        if (start >= end) {
+            return;
+        }
+
+        oldData.seek(start);
+        oldData.readFully(buffer, (int) (start - position), (int) (end - start));
+    }
+
+    // Offsets are stored as 8 byte little-endian sign-magnitude integers.
+    private static long readOffset(byte[] data, int offset) {
+        long value = data[offset + 7] & 0x7F;
+        for (int i = 6; i >= 0; i--) {
+            value = value * 256 + (data[offset + i] & 0xFF);
+        }
+
+        return (data[offset + 7] & 0x80) != 0 ? -value : value;
+    }
+}
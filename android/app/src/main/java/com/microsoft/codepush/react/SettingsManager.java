@@ -1,122 +1,238 @@
 package com.microsoft.codepush.react;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class SettingsManager {
 
-    private SharedPreferences mSettings;
+    // Failed updates are only remembered so that they aren't offered again, which stops mattering
+    // once a newer release is out, so the oldest ones are forgotten beyond these limits.
+    private static final int FAILED_UPDATES_MAX_COUNT = 50;
+    private static final long FAILED_UPDATES_MAX_AGE_MILLIS = 90L * 24 * 60 * 60 * 1000;
+
+    // Only the fields needed to recognize a failed update and to report its rollback are kept.
+    private static final String[] FAILED_UPDATE_RECORD_KEYS = {
+            CodePushConstants.PACKAGE_HASH_KEY, "label", "appVersion", "deploymentKey"
+    };
+    private static final String FAILED_UPDATE_TIME_KEY = "failedTime";
+
+    private CodePushPreferenceStore mSettings;
+
+    // Parsed values of the settings, loaded on first use and kept in sync with every change made
+    // through this class. Failed updates are keyed by their hash, from the oldest to the most
+    // recent one. Guarded by this.
+    private LinkedHashMap<String, JSONObject> mFailedUpdates;
+    private boolean mIsPendingUpdateLoaded = false;
+    private String mPendingUpdateHash;
+    private boolean mPendingUpdateIsLoading;
 
     public SettingsManager(Context applicationContext) {
-        mSettings = applicationContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+        this(new CodePushPreferenceStore(applicationContext));
+    }
+
+    public SettingsManager(CodePushPreferenceStore preferenceStore) {
+        mSettings = preferenceStore;
+    }
+
+    public synchronized JSONArray getFailedUpdates() {
+        JSONArray failedUpdates = new JSONArray();
+        for (JSONObject failedUpdate : loadFailedUpdates().values()) {
+            failedUpdates.put(failedUpdate);
+        }
+
+        return failedUpdates;
+    }
+
+    // Returns the most recently failed update, or null if there is none.
+    public synchronized JSONObject getLastFailedUpdate() {
+        JSONObject lastFailedUpdate = null;
+        for (JSONObject failedUpdate : loadFailedUpdates().values()) {
+            lastFailedUpdate = failedUpdate;
+        }
+
+        return lastFailedUpdate;
     }
 
-    public JSONArray getFailedUpdates() {
-        String failedUpdatesString = mSettings.getString(CodePushConstants.FAILED_UPDATES_KEY, null);
+    private Map<String, JSONObject> loadFailedUpdates() {
+        if (mFailedUpdates != null) {
+            return mFailedUpdates;
+        }
+
+        mFailedUpdates = new LinkedHashMap<>();
+        String failedUpdatesString = mSettings.getString(CodePushConstants.FAILED_UPDATES_KEY);
         if (failedUpdatesString == null) {
-            return new JSONArray();
+            return mFailedUpdates;
         }
 
+        boolean isChanged = false;
         try {
-            return new JSONArray(failedUpdatesString);
+            JSONArray failedUpdates = new JSONArray(failedUpdatesString);
+            for (int i = 0; i < failedUpdates.length(); i++) {
+                JSONObject failedUpdate = failedUpdates.getJSONObject(i);
+                JSONObject failedUpdateRecord = createFailedUpdateRecord(failedUpdate, System.currentTimeMillis());
+
+                // Records saved by earlier versions hold the full package metadata and no failure
+                // time, so they are rewritten in the compact form.
+                isChanged |= failedUpdate.length() != failedUpdateRecord.length();
+                addFailedUpdateRecord(failedUpdateRecord);
+            }
         } catch (JSONException e) {
             // Unrecognized data format, clear and replace with expected format.
-            JSONArray emptyArray = new JSONArray();
-            mSettings.edit().putString(CodePushConstants.FAILED_UPDATES_KEY, emptyArray.toString()).commit();
-            return emptyArray;
+            mFailedUpdates.clear();
+            saveFailedUpdates();
+            return mFailedUpdates;
         }
-    }
 
-    public JSONObject getPendingUpdate() {
-        String pendingUpdateString = mSettings.getString(CodePushConstants.PENDING_UPDATE_KEY, null);
-        if (pendingUpdateString == null) {
-            return null;
+        if (removeExpiredFailedUpdates() || isChanged) {
+            saveFailedUpdates();
         }
 
-        try {
-            return new JSONObject(pendingUpdateString);
-        } catch (JSONException e) {
-            // Should not happen.
-            CodePushUtils.log("Unable to parse pending update metadata " + pendingUpdateString +
-                    " stored in SharedPreferences");
-            return null;
+        return mFailedUpdates;
+    }
+
+    private JSONObject createFailedUpdateRecord(JSONObject failedPackage, long defaultFailedTime) {
+        JSONObject failedUpdateRecord = new JSONObject();
+        for (String key : FAILED_UPDATE_RECORD_KEYS) {
+            CodePushUtils.setJSONValueForKey(failedUpdateRecord, key, failedPackage.opt(key));
         }
+
+        CodePushUtils.setJSONValueForKey(failedUpdateRecord, FAILED_UPDATE_TIME_KEY,
+                failedPackage.optLong(FAILED_UPDATE_TIME_KEY, defaultFailedTime));
+        return failedUpdateRecord;
     }
 
+    private void addFailedUpdateRecord(JSONObject failedUpdateRecord) {
+        String packageHash = failedUpdateRecord.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
+        if (packageHash == null) {
+            return;
+        }
+
+        // Re-inserting moves an update that failed again to the most recent position.
+        mFailedUpdates.remove(packageHash);
+        mFailedUpdates.put(packageHash, failedUpdateRecord);
+    }
 
-    public boolean isFailedHash(String packageHash) {
-        JSONArray failedUpdates = getFailedUpdates();
-        if (packageHash != null) {
-            for (int i = 0; i < failedUpdates.length(); i++) {
-                try {
-                    JSONObject failedPackage = failedUpdates.getJSONObject(i);
-                    String failedPackageHash = failedPackage.getString(CodePushConstants.PACKAGE_HASH_KEY);
-                    if (packageHash.equals(failedPackageHash)) {
-                        return true;
-                    }
-                } catch (JSONException e) {
-                    throw new CodePushUnknownException("Unable to read failedUpdates data stored in SharedPreferences.", e);
-                }
+    // Removes the oldest failed updates beyond the limits, and returns whether there were any.
+    private boolean removeExpiredFailedUpdates() {
+        boolean isChanged = false;
+        long expiryTime = System.currentTimeMillis() - FAILED_UPDATES_MAX_AGE_MILLIS;
+        Iterator<JSONObject> failedUpdates = mFailedUpdates.values().iterator();
+        while (failedUpdates.hasNext()) {
+            JSONObject failedUpdate = failedUpdates.next();
+            if (mFailedUpdates.size() <= FAILED_UPDATES_MAX_COUNT
+                    && failedUpdate.optLong(FAILED_UPDATE_TIME_KEY, 0) >= expiryTime) {
+                break;
             }
+
+            failedUpdates.remove();
+            isChanged = true;
         }
 
-        return false;
+        return isChanged;
     }
 
-    public boolean isPendingUpdate(String packageHash) {
-        JSONObject pendingUpdate = getPendingUpdate();
+    private void saveFailedUpdates() {
+        if (mFailedUpdates.isEmpty()) {
+            mSettings.remove(CodePushConstants.FAILED_UPDATES_KEY);
+        } else {
+            mSettings.putString(CodePushConstants.FAILED_UPDATES_KEY, getFailedUpdates().toString());
+        }
+    }
 
-        try {
-            return pendingUpdate != null &&
-                    !pendingUpdate.getBoolean(CodePushConstants.PENDING_UPDATE_IS_LOADING_KEY) &&
-                    (packageHash == null || pendingUpdate.getString(CodePushConstants.PENDING_UPDATE_HASH_KEY).equals(packageHash));
+    public synchronized JSONObject getPendingUpdate() {
+        loadPendingUpdate();
+        if (mPendingUpdateHash == null) {
+            return null;
+        }
+
+        JSONObject pendingUpdate = new JSONObject();
+        CodePushUtils.setJSONValueForKey(pendingUpdate, CodePushConstants.PENDING_UPDATE_HASH_KEY, mPendingUpdateHash);
+        CodePushUtils.setJSONValueForKey(pendingUpdate, CodePushConstants.PENDING_UPDATE_IS_LOADING_KEY, mPendingUpdateIsLoading);
+        return pendingUpdate;
+    }
+
+    private void loadPendingUpdate() {
+        if (mIsPendingUpdateLoaded) {
+            return;
+        }
+
+        mIsPendingUpdateLoaded = true;
+        mPendingUpdateHash = null;
+        String pendingUpdateString = mSettings.getString(CodePushConstants.PENDING_UPDATE_KEY);
+        if (pendingUpdateString == null) {
+            return;
         }
-        catch (JSONException e) {
-            throw new CodePushUnknownException("Unable to read pending update metadata in isPendingUpdate.", e);
+
+        try {
+            JSONObject pendingUpdate = new JSONObject(pendingUpdateString);
+            mPendingUpdateIsLoading = pendingUpdate.getBoolean(CodePushConstants.PENDING_UPDATE_IS_LOADING_KEY);
+            mPendingUpdateHash = pendingUpdate.getString(CodePushConstants.PENDING_UPDATE_HASH_KEY);
+        } catch (JSONException e) {
+            // Should not happen.
+            CodePushUtils.log("Unable to parse pending update metadata " + pendingUpdateString +
+                    " stored in SharedPreferences");
         }
     }
 
-    public void removeFailedUpdates() {
-        mSettings.edit().remove(CodePushConstants.FAILED_UPDATES_KEY).commit();
+    public synchronized boolean isFailedHash(String packageHash) {
+        return packageHash != null && loadFailedUpdates().containsKey(packageHash);
     }
 
-    public void removePendingUpdate() {
-        mSettings.edit().remove(CodePushConstants.PENDING_UPDATE_KEY).commit();
+    public synchronized boolean isPendingUpdate(String packageHash) {
+        loadPendingUpdate();
+        return mPendingUpdateHash != null &&
+                !mPendingUpdateIsLoading &&
+                (packageHash == null || mPendingUpdateHash.equals(packageHash));
     }
 
-    public void saveFailedUpdate(JSONObject failedPackage) {
-        String failedUpdatesString = mSettings.getString(CodePushConstants.FAILED_UPDATES_KEY, null);
-        JSONArray failedUpdates;
-        if (failedUpdatesString == null) {
-            failedUpdates = new JSONArray();
-        } else {
-            try {
-                failedUpdates = new JSONArray(failedUpdatesString);
-            } catch (JSONException e) {
-                // Should not happen.
-                throw new CodePushMalformedDataException("Unable to parse failed updates information " +
-                        failedUpdatesString + " stored in SharedPreferences", e);
-            }
+    public synchronized void removeFailedUpdates() {
+        mFailedUpdates = new LinkedHashMap<>();
+        mSettings.remove(CodePushConstants.FAILED_UPDATES_KEY);
+    }
+
+    public synchronized void removePendingUpdate() {
+        mIsPendingUpdateLoaded = true;
+        mPendingUpdateHash = null;
+        mSettings.remove(CodePushConstants.PENDING_UPDATE_KEY);
+    }
+
+    public synchronized void saveFailedUpdate(JSONObject failedPackage) {
+        if (failedPackage == null || failedPackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null) == null) {
+            CodePushUtils.log("Unable to save a failed update without a package hash.");
+            return;
         }
 
-        failedUpdates.put(failedPackage);
-        mSettings.edit().putString(CodePushConstants.FAILED_UPDATES_KEY, failedUpdates.toString()).commit();
+        loadFailedUpdates();
+        addFailedUpdateRecord(createFailedUpdateRecord(failedPackage, System.currentTimeMillis()));
+        removeExpiredFailedUpdates();
+        saveFailedUpdates();
     }
 
-    public void savePendingUpdate(String packageHash, boolean isLoading) {
+    public synchronized void savePendingUpdate(String packageHash, boolean isLoading) {
         JSONObject pendingUpdate = new JSONObject();
         try {
             pendingUpdate.put(CodePushConstants.PENDING_UPDATE_HASH_KEY, packageHash);
             pendingUpdate.put(CodePushConstants.PENDING_UPDATE_IS_LOADING_KEY, isLoading);
-            mSettings.edit().putString(CodePushConstants.PENDING_UPDATE_KEY, pendingUpdate.toString()).commit();
         } catch (JSONException e) {
             // Should not happen.
             throw new CodePushUnknownException("Unable to save pending update.", e);
         }
+
+        mIsPendingUpdateLoaded = true;
+        mPendingUpdateHash = packageHash;
+        mPendingUpdateIsLoading = isLoading;
+        mSettings.putString(CodePushConstants.PENDING_UPDATE_KEY, pendingUpdate.toString());
     }
 
+    // Blocks until every change made so far has been saved to disk.
+    public void flush() {
+        mSettings.flush();
+    }
 }
@@ -0,0 +1,166 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+// Generates update packages shaped like real ones: a JS bundle holding half of the package size,
+// with the rest spread over assets in nested folders. The contents are deterministic and compress
+// about as well as minified JS does.
+class BenchmarkPackages {
+
+    static final String BUNDLE_FILE_NAME = "index.android.bundle";
+
+    private static final int ASSETS_PER_FOLDER = 50;
+    private static final String[] WORDS = {
+            "function", "return", "var", "this", "null", "undefined", "prototype", "exports",
+            "require", "length", "object", "value", "props", "state", "default", "__d", "(", ")",
+            "{", "}", ";", ",", "=", "0", "1", "e", "t", "n", "r", "i"
+    };
+
+    static File createTempFolder(String name) throws IOException {
+        File folder = File.createTempFile("codepush-benchmark-" + name, "");
+        if (!folder.delete() || !folder.mkdirs()) {
+            throw new IOException("Unable to create " + folder);
+        }
+
+        return folder;
+    }
+
+    static void createPackage(File folder, int fileCount, long packageSize) throws IOException {
+        Random random = new Random(fileCount * 31 + packageSize);
+        writeFile(new File(folder, BUNDLE_FILE_NAME), fileCount > 1 ? packageSize / 2 : packageSize, random);
+
+        int assetCount = fileCount - 1;
+        for (int i = 0; i < assetCount; i++) {
+            File assetFile = new File(folder, getAssetPath(i));
+            assetFile.getParentFile().mkdirs();
+            writeFile(assetFile, packageSize / 2 / assetCount, random);
+        }
+    }
+
+    // Creates the next release of a package made by createPackage in newFolder, with its bundle and
+    // changedFileCount - 1 of its assets changed and its last asset deleted, and the diff update that
+    // turns the package into it in diffFolder.
+    static void createDiffPackage(File currentFolder, int fileCount, long packageSize, int changedFileCount,
+                                  File newFolder, File diffFolder) throws IOException {
+        Random random = new Random(fileCount * 37 + packageSize);
+        FileUtils.copyDirectoryContents(currentFolder.getPath(), newFolder.getPath());
+        diffFolder.mkdirs();
+
+        int assetCount = fileCount - 1;
+        for (int i = 0; i < changedFileCount; i++) {
+            String relativePath = i == 0 ? BUNDLE_FILE_NAME : getAssetPath(i - 1);
+            File changedFile = new File(newFolder, relativePath);
+            writeFile(changedFile, changedFile.length(), random);
+
+            File diffFile = new File(diffFolder, relativePath);
+            diffFile.getParentFile().mkdirs();
+            FileUtils.copyFile(changedFile, diffFile);
+        }
+
+        JSONArray deletedFiles = new JSONArray();
+        if (assetCount > changedFileCount - 1) {
+            String deletedPath = getAssetPath(assetCount - 1);
+            new File(newFolder, deletedPath).delete();
+            deletedFiles.put(deletedPath);
+        }
+
+        JSONObject diffManifest = new JSONObject();
+        try {
+            diffManifest.put("deletedFiles", deletedFiles);
+        } catch (JSONException e) {
+            throw new CodePushUnknownException("Unable to create the diff manifest.", e);
+        }
+
+        FileUtils.writeStringToFile(diffManifest.toString(), new File(diffFolder, CodePushConstants.DIFF_MANIFEST_FILE_NAME).getPath());
+    }
+
+    private static String getAssetPath(int index) {
+        return "drawable-mdpi/folder" + (index / ASSETS_PER_FOLDER) + "/asset" + index + ".png";
+    }
+
+    // Computes the package hash the way the CodePush CLI does when an update is released.
+    static String computePackageHash(File folder) throws IOException {
+        List<String> manifest = new ArrayList<>();
+        addFolderToManifest(folder, "", manifest);
+        Collections.sort(manifest);
+        String manifestString = new JSONArray(manifest).toString().replace("\\/", "/");
+        return CodePushUpdateUtils.formatHash(CodePushUpdateUtils.createHashDigest().digest(manifestString.getBytes("UTF-8")));
+    }
+
+    private static void addFolderToManifest(File folder, String pathPrefix, List<String> manifest) {
+        for (File file : folder.listFiles()) {
+            String relativePath = pathPrefix + file.getName();
+            if (file.isDirectory()) {
+                addFolderToManifest(file, relativePath + "/", manifest);
+            } else {
+                manifest.add(relativePath + ":" + CodePushUpdateUtils.computeFileHash(file));
+            }
+        }
+    }
+
+    static void zipFolder(File folder, File zipFile) throws IOException {
+        ZipOutputStream zipStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+        try {
+            addFolderToZip(folder, "", zipStream);
+        } finally {
+            zipStream.close();
+        }
+    }
+
+    private static void addFolderToZip(File folder, String pathPrefix, ZipOutputStream zipStream) throws IOException {
+        byte[] buffer = new byte[8 * 1024];
+        for (File file : folder.listFiles()) {
+            String relativePath = pathPrefix + file.getName();
+            if (file.isDirectory()) {
+                zipStream.putNextEntry(new ZipEntry(relativePath + "/"));
+                zipStream.closeEntry();
+                addFolderToZip(file, relativePath + "/", zipStream);
+                continue;
+            }
+
+            zipStream.putNextEntry(new ZipEntry(relativePath));
+            InputStream fileStream = new FileInputStream(file);
+            try {
+                int numBytesRead;
+                while ((numBytesRead = fileStream.read(buffer)) != -1) {
+                    zipStream.write(buffer, 0, numBytesRead);
+                }
+            } finally {
+                fileStream.close();
+            }
+
+            zipStream.closeEntry();
+        }
+    }
+
+    private static void writeFile(File file, long size, Random random) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            long remainingBytes = size;
+            while (remainingBytes > 0) {
+                byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes("UTF-8");
+                int length = (int) Math.min(word.length, remainingBytes);
+                outputStream.write(word, 0, length);
+                remainingBytes -= length;
+            }
+        } finally {
+            outputStream.close();
+        }
+    }
+}
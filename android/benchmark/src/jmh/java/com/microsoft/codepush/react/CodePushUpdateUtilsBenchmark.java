@@ -0,0 +1,95 @@
+package com.microsoft.codepush.react;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CodePushUpdateUtilsBenchmark {
+
+    public static class HashedPackageState extends PackageState {
+
+        File bundleFile;
+        String packageHash;
+        Map<String, String> extractedFileHashes;
+
+        @Override
+        protected void onPackageCreated() throws IOException {
+            bundleFile = new File(packageFolder, BenchmarkPackages.BUNDLE_FILE_NAME);
+            extractedFileHashes = FileUtils.unzipFile(packageZip, destinationFolder.getPath());
+            packageHash = BenchmarkPackages.computePackageHash(packageFolder);
+        }
+    }
+
+    // A release signature made the way the CodePush CLI makes it, and the public key to check it with.
+    @State(Scope.Benchmark)
+    public static class SignatureState {
+
+        static final String PACKAGE_HASH = "4d3a7f0e2c1b5a69887766554433221100ffeeddccbbaa998877665544332211";
+
+        String publicKey;
+        String signature;
+
+        @Setup
+        public void setUp() throws NoSuchAlgorithmException, JOSEException {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            publicKey = "-----BEGIN PUBLIC KEY-----" + Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()) + "-----END PUBLIC KEY-----";
+
+            SignedJWT signedJWT = new SignedJWT(new JWSHeader(JWSAlgorithm.RS256),
+                    new JWTClaimsSet.Builder().claim("contentHash", PACKAGE_HASH).build());
+            signedJWT.sign(new RSASSASigner(keyPair.getPrivate()));
+            signature = signedJWT.serialize();
+        }
+    }
+
+    // The verifier for the key is kept across updates, as it is when every update is signed with the same key.
+    @Benchmark
+    public void verifySignature(SignatureState state) {
+        CodePushUpdateUtils.verifySignature(state.signature, SignatureState.PACKAGE_HASH, state.publicKey);
+    }
+
+    // The key is parsed again for every update.
+    @Benchmark
+    public Map<String, Object> verifySignatureWithParsedKey(SignatureState state) {
+        return CodePushUpdateUtils.verifyAndDecodeJWT(state.signature, CodePushUpdateUtils.parsePublicKey(state.publicKey));
+    }
+
+    @Benchmark
+    public void verifyFolderHash(HashedPackageState state) {
+        CodePushUpdateUtils.verifyFolderHash(state.packageFolder.getPath(), state.packageHash);
+    }
+
+    // The hashes of extracted files are known, as they are when a full update is installed.
+    @Benchmark
+    public void verifyFolderHashWithExtractedFileHashes(HashedPackageState state) {
+        CodePushUpdateUtils.verifyFolderHash(state.destinationFolder.getPath(), state.packageHash, state.extractedFileHashes);
+    }
+
+    @Benchmark
+    public String computeFileHash(HashedPackageState state) {
+        return CodePushUpdateUtils.computeFileHash(state.bundleFile);
+    }
+}
@@ -0,0 +1,92 @@
+package com.microsoft.codepush.react;
+
+import com.facebook.react.bridge.ReadableMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Measures the conversions of package metadata to and from the bridge types. The React Native
+// bridge can't be loaded on a plain JVM, so the maps are the Java-only ones that stand in for it,
+// and the cost of crossing into native code isn't included.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class CodePushUtilsBenchmark {
+
+    // The number of keys the app added to the package, e.g. through the release description.
+    @Param({"0", "100"})
+    public int customKeyCount;
+
+    private JSONObject mPackageMetadata;
+    private ReadableMap mReadablePackageMetadata;
+    private File mDocumentsFolder;
+    private String mPackageHash;
+    private CodePushMetadataConverter mMetadataConverter;
+
+    @Setup
+    public void createPackageMetadata() throws IOException, JSONException {
+        mPackageMetadata = new JSONObject();
+        mPackageMetadata.put("appVersion", "1.0.0");
+        mPackageMetadata.put("deploymentKey", "deployment-key-here");
+        mPackageMetadata.put("description", "Fixes the crash on the settings screen");
+        mPackageMetadata.put("failedInstall", false);
+        mPackageMetadata.put("isMandatory", true);
+        mPackageMetadata.put("label", "v42");
+        mPackageMetadata.put("packageHash", "8f0d6a7c3b3e3e2e4b5c1f5f8d7f9e5f0a4c2b1d6e8f7a9b0c1d2e3f4a5b6c7d");
+        mPackageMetadata.put("packageSize", 4096000);
+        mPackageMetadata.put("downloadUrl", "https://codepush.blob.core.windows.net/storagev2/8f0d6a7c");
+        mPackageMetadata.put("bundlePath", "/CodePush/index.android.bundle");
+        mPackageMetadata.put("binaryModifiedTime", "1508256000000");
+
+        JSONObject customData = new JSONObject();
+        for (int i = 0; i < customKeyCount; i++) {
+            customData.put("key" + i, i % 2 == 0 ? "value" + i : i);
+        }
+
+        mPackageMetadata.put("customData", customData);
+        mReadablePackageMetadata = CodePushUtils.convertJsonObjectToWritable(mPackageMetadata);
+
+        // Install the package, as far as its metadata is concerned.
+        mDocumentsFolder = BenchmarkPackages.createTempFolder("metadata");
+        CodePushUpdateManager updateManager = new CodePushUpdateManager(mDocumentsFolder.getPath());
+        mPackageHash = mPackageMetadata.getString(CodePushConstants.PACKAGE_HASH_KEY);
+        File packageFolder = new File(updateManager.getPackageFolderPath(mPackageHash));
+        packageFolder.mkdirs();
+        CodePushUtils.writeJsonToFile(mPackageMetadata, new File(packageFolder, CodePushConstants.PACKAGE_FILE_NAME).getPath());
+        mMetadataConverter = new CodePushMetadataConverter(updateManager);
+    }
+
+    @TearDown
+    public void deletePackageMetadata() {
+        FileUtils.deleteFileOrFolderSilently(mDocumentsFolder);
+    }
+
+    @Benchmark
+    public ReadableMap convertJsonObjectToWritable() {
+        return CodePushUtils.convertJsonObjectToWritable(mPackageMetadata);
+    }
+
+    // The metadata was converted before, as it is for every call after the first one.
+    @Benchmark
+    public ReadableMap getPackageFromMetadataConverter() {
+        return mMetadataConverter.getPackage(mPackageHash);
+    }
+
+    @Benchmark
+    public JSONObject convertReadableToJsonObject() {
+        return CodePushUtils.convertReadableToJsonObject(mReadablePackageMetadata);
+    }
+}
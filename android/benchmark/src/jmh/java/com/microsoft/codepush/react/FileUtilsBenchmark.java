@@ -0,0 +1,50 @@
+package com.microsoft.codepush.react;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FileUtilsBenchmark {
+
+    // Each operation starts without a destination folder, so that unzipFile and
+    // copyDirectoryContents aren't also measuring the deletion of the previous one.
+    public static class EmptyDestinationState extends PackageState {
+
+        @Setup(Level.Invocation)
+        public void deleteDestination() {
+            FileUtils.deleteFileOrFolderSilently(destinationFolder);
+        }
+    }
+
+    public static class FilledDestinationState extends PackageState {
+
+        @Setup(Level.Invocation)
+        public void fillDestination() throws IOException {
+            FileUtils.copyDirectoryContents(packageFolder.getPath(), destinationFolder.getPath());
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> unzipFile(EmptyDestinationState state) throws IOException {
+        return FileUtils.unzipFile(state.packageZip, state.destinationFolder.getPath());
+    }
+
+    @Benchmark
+    public void copyDirectoryContents(EmptyDestinationState state) throws IOException {
+        FileUtils.copyDirectoryContents(state.packageFolder.getPath(), state.destinationFolder.getPath());
+    }
+
+    @Benchmark
+    public void deleteFileOrFolderSilently(FilledDestinationState state) {
+        FileUtils.deleteFileOrFolderSilently(state.destinationFolder);
+    }
+}
@@ -0,0 +1,50 @@
+package com.microsoft.codepush.react;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+// A generated package, both as a folder and as a zip, for each combination of file count and size.
+@State(Scope.Benchmark)
+public class PackageState {
+
+    @Param({"10", "1000"})
+    public int fileCount;
+
+    @Param({"1024", "16384"})
+    public int packageSizeKb;
+
+    File workFolder;
+    File packageFolder;
+    File packageZip;
+    File destinationFolder;
+
+    @Setup(Level.Trial)
+    public void createPackage() throws IOException {
+        workFolder = BenchmarkPackages.createTempFolder("package");
+        packageFolder = new File(workFolder, "package");
+        packageFolder.mkdirs();
+        BenchmarkPackages.createPackage(packageFolder, fileCount, packageSizeKb * 1024L);
+
+        packageZip = new File(workFolder, "package.zip");
+        BenchmarkPackages.zipFolder(packageFolder, packageZip);
+        destinationFolder = new File(workFolder, "destination");
+        onPackageCreated();
+    }
+
+    // Lets subclasses prepare more of the package. JMH doesn't order the setup methods of a state
+    // and its superclasses.
+    protected void onPackageCreated() throws IOException {
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePackage() {
+        FileUtils.deleteFileOrFolderSilently(workFolder);
+    }
+}
@@ -0,0 +1,414 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs the whole update cycle of CodePushUpdateManager against a local UpdateServer: a full update is
+// downloaded and installed, then a diff update on top of it, whose bundle is loaded as it would be
+// after a restart, and which is finally rolled back. Each stage
+// is timed separately and its results are written as JSON, so that they can be compared across
+// releases. Options are passed as key=value arguments, see Options for their names and defaults.
+public class UpdatePipelineBenchmark {
+
+    private static final String[] STAGES = {"downloadFull", "installFull", "downloadDiff", "installDiff", "warmUp", "loadBundle", "rollback"};
+
+    static class Options {
+        int packageSizeKb = 8192;
+        int fileCount = 200;
+        // The number of files the diff update changes, including the bundle.
+        int diffFileCount = 10;
+        // 0 means unlimited.
+        long bandwidthKbps = 0;
+        long latencyMs = 0;
+        int warmupIterations = 1;
+        int iterations = 5;
+        boolean streamingExtraction = false;
+        boolean segmentedDownload = false;
+        boolean blobStore = false;
+        // Whether the installed diff update is read into the page cache before its bundle is loaded.
+        boolean warmUp = false;
+        // Whether the page cache is emptied after the diff update is installed, as happens when the
+        // device is low on memory before the restart. Requires root.
+        boolean dropCaches = false;
+        String output = null;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                int separatorIndex = arg.indexOf('=');
+                if (separatorIndex < 0) {
+                    throw new IllegalArgumentException("Expected key=value, got " + arg);
+                }
+
+                String key = arg.substring(0, separatorIndex);
+                String value = arg.substring(separatorIndex + 1);
+                switch (key) {
+                    case "packageSizeKb": options.packageSizeKb = Integer.parseInt(value); break;
+                    case "fileCount": options.fileCount = Integer.parseInt(value); break;
+                    case "diffFileCount": options.diffFileCount = Integer.parseInt(value); break;
+                    case "bandwidthKbps": options.bandwidthKbps = Long.parseLong(value); break;
+                    case "latencyMs": options.latencyMs = Long.parseLong(value); break;
+                    case "warmupIterations": options.warmupIterations = Integer.parseInt(value); break;
+                    case "iterations": options.iterations = Integer.parseInt(value); break;
+                    case "streamingExtraction": options.streamingExtraction = Boolean.parseBoolean(value); break;
+                    case "segmentedDownload": options.segmentedDownload = Boolean.parseBoolean(value); break;
+                    case "blobStore": options.blobStore = Boolean.parseBoolean(value); break;
+                    case "warmUp": options.warmUp = Boolean.parseBoolean(value); break;
+                    case "dropCaches": options.dropCaches = Boolean.parseBoolean(value); break;
+                    case "output": options.output = value; break;
+                    default: throw new IllegalArgumentException("Unknown option " + key);
+                }
+            }
+
+            if (options.fileCount < 1 || options.diffFileCount < 1 || options.diffFileCount > options.fileCount) {
+                throw new IllegalArgumentException("Expected 1 <= diffFileCount <= fileCount");
+            }
+
+            return options;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("packageSizeKb", packageSizeKb)
+                    .put("fileCount", fileCount)
+                    .put("diffFileCount", diffFileCount)
+                    .put("bandwidthKbps", bandwidthKbps)
+                    .put("latencyMs", latencyMs)
+                    .put("warmupIterations", warmupIterations)
+                    .put("iterations", iterations)
+                    .put("streamingExtraction", streamingExtraction)
+                    .put("segmentedDownload", segmentedDownload)
+                    .put("blobStore", blobStore)
+                    .put("warmUp", warmUp)
+                    .put("dropCaches", dropCaches);
+        }
+    }
+
+    // The samples of one stage, one per measured iteration.
+    private static class StageSamples {
+        final List<Long> wallTimeMs = new ArrayList<>();
+        final List<Long> bytesWritten = new ArrayList<>();
+        final List<Long> peakHeapBytes = new ArrayList<>();
+    }
+
+    private final Options mOptions;
+    private final UpdateServer mServer;
+    private final Map<String, StageSamples> mSamples = new LinkedHashMap<>();
+    private JSONObject mFullPackage;
+    private JSONObject mDiffPackage;
+    private long mFullPackageSize;
+    private long mDiffPackageSize;
+
+    UpdatePipelineBenchmark(Options options) {
+        mOptions = options;
+        mServer = new UpdateServer(options.bandwidthKbps * 1000 / 8, options.latencyMs);
+        for (String stage : STAGES) {
+            mSamples.put(stage, new StageSamples());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+        UpdatePipelineBenchmark benchmark = new UpdatePipelineBenchmark(options);
+        JSONObject results = benchmark.run();
+
+        String resultsString = results.toString(2);
+        System.out.println(resultsString);
+        if (options.output != null) {
+            File outputFile = new File(options.output);
+            outputFile.getParentFile().mkdirs();
+            FileUtils.writeStringToFile(resultsString, outputFile.getPath());
+        }
+    }
+
+    JSONObject run() throws IOException, JSONException {
+        File workFolder = BenchmarkPackages.createTempFolder("pipeline");
+        mServer.start();
+        try {
+            createPackages(workFolder);
+            for (int i = 0; i < mOptions.warmupIterations + mOptions.iterations; i++) {
+                File documentsFolder = new File(workFolder, "documents" + i);
+                runCycle(documentsFolder, i >= mOptions.warmupIterations);
+                FileUtils.deleteFileOrFolderSilently(documentsFolder);
+            }
+        } finally {
+            mServer.stop();
+            FileUtils.deleteFileOrFolderSilently(workFolder);
+        }
+
+        return getResults();
+    }
+
+    private void createPackages(File workFolder) throws IOException, JSONException {
+        long packageSize = mOptions.packageSizeKb * 1024L;
+        File fullFolder = new File(workFolder, "full");
+        File newFolder = new File(workFolder, "new");
+        File diffFolder = new File(workFolder, "diff");
+        fullFolder.mkdirs();
+        BenchmarkPackages.createPackage(fullFolder, mOptions.fileCount, packageSize);
+        BenchmarkPackages.createDiffPackage(fullFolder, mOptions.fileCount, packageSize, mOptions.diffFileCount, newFolder, diffFolder);
+
+        File fullZip = new File(workFolder, "full.zip");
+        File diffZip = new File(workFolder, "diff.zip");
+        BenchmarkPackages.zipFolder(fullFolder, fullZip);
+        BenchmarkPackages.zipFolder(diffFolder, diffZip);
+        mFullPackageSize = fullZip.length();
+        mDiffPackageSize = diffZip.length();
+
+        mFullPackage = createPackageMetadata("v1", BenchmarkPackages.computePackageHash(fullFolder),
+                mServer.putPackage("full.zip", Files.readAllBytes(fullZip.toPath())), mFullPackageSize);
+        mDiffPackage = createPackageMetadata("v2", BenchmarkPackages.computePackageHash(newFolder),
+                mServer.putPackage("diff.zip", Files.readAllBytes(diffZip.toPath())), mDiffPackageSize);
+
+        FileUtils.deleteFileOrFolderSilently(fullFolder);
+        FileUtils.deleteFileOrFolderSilently(newFolder);
+        FileUtils.deleteFileOrFolderSilently(diffFolder);
+        FileUtils.deleteFileOrFolderSilently(fullZip);
+        FileUtils.deleteFileOrFolderSilently(diffZip);
+    }
+
+    private static JSONObject createPackageMetadata(String label, String packageHash, String downloadUrl, long packageSize) throws JSONException {
+        return new JSONObject()
+                .put("appVersion", "1.0.0")
+                .put("label", label)
+                .put(CodePushConstants.PACKAGE_HASH_KEY, packageHash)
+                .put(CodePushConstants.DOWNLOAD_URL_KEY, downloadUrl)
+                .put("packageSize", packageSize);
+    }
+
+    private void runCycle(File documentsFolder, boolean isMeasured) throws IOException, JSONException {
+        final CodePushUpdateManager updateManager = new CodePushUpdateManager(documentsFolder.getPath());
+        updateManager.setStreamingExtractionEnabled(mOptions.streamingExtraction);
+        updateManager.setSegmentedDownloadEnabled(mOptions.segmentedDownload);
+        updateManager.setBlobStoreEnabled(mOptions.blobStore);
+
+        // Every cycle starts from the same metadata, as it would arrive from the update server.
+        final JSONObject fullPackage = new JSONObject(mFullPackage.toString());
+        final JSONObject diffPackage = new JSONObject(mDiffPackage.toString());
+        final DownloadProgressCallback progressCallback = new DownloadProgressCallback() {
+            @Override
+            public void call(DownloadProgress downloadProgress) {
+            }
+        };
+
+        runStage("downloadFull", isMeasured, new Stage() {
+            @Override
+            public void run() throws IOException {
+                updateManager.downloadPackage(fullPackage, BenchmarkPackages.BUNDLE_FILE_NAME, progressCallback, null);
+            }
+        });
+        runStage("installFull", isMeasured, new Stage() {
+            @Override
+            public void run() {
+                updateManager.installPackage(fullPackage, false);
+            }
+        });
+        runStage("downloadDiff", isMeasured, new Stage() {
+            @Override
+            public void run() throws IOException {
+                updateManager.downloadPackage(diffPackage, BenchmarkPackages.BUNDLE_FILE_NAME, progressCallback, null);
+            }
+        });
+        runStage("installDiff", isMeasured, new Stage() {
+            @Override
+            public void run() {
+                updateManager.installPackage(diffPackage, false);
+            }
+        });
+        if (mOptions.dropCaches) {
+            dropCaches();
+        }
+
+        runStage("warmUp", isMeasured, new Stage() {
+            @Override
+            public void run() throws IOException {
+                if (mOptions.warmUp) {
+                    updateManager.warmUpPackage(updateManager.getBootRecord(), BenchmarkPackages.BUNDLE_FILE_NAME, Long.MAX_VALUE);
+                }
+            }
+        });
+        runStage("loadBundle", isMeasured, new Stage() {
+            @Override
+            public void run() throws IOException {
+                readFile(new File(updateManager.getBootRecordBundlePath(updateManager.getBootRecord(), BenchmarkPackages.BUNDLE_FILE_NAME)));
+            }
+        });
+        runStage("rollback", isMeasured, new Stage() {
+            @Override
+            public void run() {
+                updateManager.rollbackPackage();
+            }
+        });
+
+        if (!fullPackage.getString(CodePushConstants.PACKAGE_HASH_KEY).equals(updateManager.getCurrentPackageHash())) {
+            throw new IllegalStateException("The full update is not current after the diff update was rolled back.");
+        }
+    }
+
+    // Writes dirty pages and then evicts every clean page from the page cache.
+    private static void dropCaches() throws IOException {
+        try {
+            if (new ProcessBuilder("sync").inheritIO().start().waitFor() != 0) {
+                throw new IOException("sync failed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while syncing", e);
+        }
+
+        FileOutputStream outputStream = new FileOutputStream("/proc/sys/vm/drop_caches");
+        try {
+            outputStream.write("3".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    // Reads the whole file the way the JS engine reads a bundle.
+    private static void readFile(File file) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            while (inputStream.read(buffer) != -1) {
+                // Only the time taken matters.
+            }
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private interface Stage {
+        void run() throws IOException;
+    }
+
+    private void runStage(String name, boolean isMeasured, Stage stage) throws IOException {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()) {
+                heapPools.add(pool);
+            }
+        }
+
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+
+        long startWrittenBytes = getWrittenBytes();
+        long startSentBytes = mServer.getSentBytes();
+        long startTime = System.nanoTime();
+        stage.run();
+        long wallTimeMs = (System.nanoTime() - startTime) / 1000000;
+        long endWrittenBytes = getWrittenBytes();
+
+        long peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+
+        if (!isMeasured) {
+            return;
+        }
+
+        // The server runs in this process, so the bytes it sent over the socket are left out.
+        StageSamples samples = mSamples.get(name);
+        samples.wallTimeMs.add(wallTimeMs);
+        samples.bytesWritten.add(startWrittenBytes < 0 || endWrittenBytes < 0 ? -1
+                : endWrittenBytes - startWrittenBytes - (mServer.getSentBytes() - startSentBytes));
+        samples.peakHeapBytes.add(peakHeapBytes);
+    }
+
+    // Returns the number of bytes this process has passed to write calls, or -1 if the platform
+    // doesn't report it.
+    private static long getWrittenBytes() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/self/io"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("wchar:")) {
+                    return Long.parseLong(line.substring("wchar:".length()).trim());
+                }
+            }
+
+            return -1;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        } finally {
+            try {
+                if (reader != null) reader.close();
+            } catch (IOException e) {
+                // Nothing else was read from it.
+            }
+        }
+    }
+
+    private JSONObject getResults() throws JSONException {
+        JSONObject stages = new JSONObject();
+        long[] totalWallTimeMs = new long[mOptions.iterations];
+        for (Map.Entry<String, StageSamples> entry : mSamples.entrySet()) {
+            StageSamples samples = entry.getValue();
+            for (int i = 0; i < samples.wallTimeMs.size(); i++) {
+                totalWallTimeMs[i] += samples.wallTimeMs.get(i);
+            }
+
+            stages.put(entry.getKey(), new JSONObject()
+                    .put("wallTimeMs", summarize(samples.wallTimeMs))
+                    .put("bytesWritten", summarize(samples.bytesWritten))
+                    .put("peakHeapBytes", summarize(samples.peakHeapBytes)));
+        }
+
+        List<Long> totalWallTimeMsList = new ArrayList<>();
+        for (long wallTimeMs : totalWallTimeMs) {
+            totalWallTimeMsList.add(wallTimeMs);
+        }
+
+        return new JSONObject()
+                .put("configuration", mOptions.toJson())
+                .put("packages", new JSONObject()
+                        .put("fullPackageBytes", mFullPackageSize)
+                        .put("diffPackageBytes", mDiffPackageSize))
+                .put("stages", stages)
+                .put("totalWallTimeMs", summarize(totalWallTimeMsList));
+    }
+
+    private static JSONObject summarize(List<Long> samples) throws JSONException {
+        JSONArray samplesArray = new JSONArray();
+        long[] sortedSamples = new long[samples.size()];
+        long sum = 0;
+        for (int i = 0; i < samples.size(); i++) {
+            samplesArray.put(samples.get(i));
+            sortedSamples[i] = samples.get(i);
+            sum += samples.get(i);
+        }
+
+        JSONObject summary = new JSONObject();
+        if (sortedSamples.length > 0) {
+            Arrays.sort(sortedSamples);
+            summary.put("min", sortedSamples[0])
+                    .put("median", sortedSamples[sortedSamples.length / 2])
+                    .put("mean", sum / sortedSamples.length)
+                    .put("max", sortedSamples[sortedSamples.length - 1]);
+        }
+
+        return summary.put("samples", samplesArray);
+    }
+}
@@ -0,0 +1,128 @@
+package com.microsoft.codepush.react;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Serves packages over HTTP on the loopback interface, standing in for the CodePush CDN. Every
+// response is delayed by the configured latency and sent no faster than the configured bandwidth,
+// so that the benchmark sees roughly the timing of a real network. Single byte ranges are honored.
+class UpdateServer implements HttpHandler {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private final Map<String, byte[]> mPackages = new ConcurrentHashMap<>();
+    private final AtomicLong mSentBytes = new AtomicLong();
+    private final long mBytesPerSecond;
+    private final long mLatencyMs;
+    private HttpServer mServer;
+
+    // A bandwidth of 0 means unlimited.
+    UpdateServer(long bytesPerSecond, long latencyMs) {
+        mBytesPerSecond = bytesPerSecond;
+        mLatencyMs = latencyMs;
+    }
+
+    void start() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", this);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    void stop() {
+        mServer.stop(0);
+    }
+
+    // Returns the URL the package is downloaded from.
+    String putPackage(String name, byte[] contents) {
+        mPackages.put("/" + name, contents);
+        return "http://" + mServer.getAddress().getHostString() + ":" + mServer.getAddress().getPort() + "/" + name;
+    }
+
+    // Returns the number of response body bytes sent so far.
+    long getSentBytes() {
+        return mSentBytes.get();
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            sleep(mLatencyMs);
+            byte[] contents = mPackages.get(exchange.getRequestURI().getPath());
+            if (contents == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(contents)) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+            int start = 0;
+            int end = contents.length - 1;
+            int status = 200;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            if (range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(etag))) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(Integer.parseInt(bounds[1]), end);
+                }
+
+                if (start > end) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + contents.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + contents.length);
+                status = 206;
+            }
+
+            exchange.sendResponseHeaders(status, end - start + 1);
+            sendShaped(exchange.getResponseBody(), contents, start, end + 1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void sendShaped(OutputStream outputStream, byte[] contents, int start, int end) throws IOException {
+        long startTime = System.nanoTime();
+        long sentBytes = 0;
+        for (int offset = start; offset < end; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, end - offset);
+            outputStream.write(contents, offset, length);
+            sentBytes += length;
+            mSentBytes.addAndGet(length);
+            if (mBytesPerSecond > 0) {
+                long dueTimeMs = sentBytes * 1000 / mBytesPerSecond;
+                sleep(dueTimeMs - (System.nanoTime() - startTime) / 1000000);
+            }
+        }
+    }
+
+    private static void sleep(long durationMs) throws IOException {
+        if (durationMs <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(durationMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while shaping the response", e);
+        }
+    }
+}
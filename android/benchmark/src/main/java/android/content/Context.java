@@ -0,0 +1,11 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+// Stands in for the Android class of the same name. Only the methods CodePush calls are kept.
+public abstract class Context {
+
+    public abstract AssetManager getAssets();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
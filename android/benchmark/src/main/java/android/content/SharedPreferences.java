@@ -0,0 +1,18 @@
+package android.content;
+
+// Stands in for the Android interface of the same name. Only the methods CodePush calls are kept.
+public interface SharedPreferences {
+
+    String getString(String key, String defValue);
+
+    Editor edit();
+
+    interface Editor {
+
+        Editor putString(String key, String value);
+
+        Editor remove(String key);
+
+        boolean commit();
+    }
+}
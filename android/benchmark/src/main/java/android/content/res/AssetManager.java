@@ -0,0 +1,10 @@
+package android.content.res;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Stands in for the Android class of the same name. Only the methods CodePush calls are kept.
+public abstract class AssetManager {
+
+    public abstract InputStream open(String fileName) throws IOException;
+}
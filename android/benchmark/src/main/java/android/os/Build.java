@@ -0,0 +1,14 @@
+package android.os;
+
+// Stands in for the Android class of the same name. The benchmarks run as if on Android 5.0, the
+// first release on which CodePush uses hard links.
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = VERSION_CODES.LOLLIPOP;
+    }
+
+    public static class VERSION_CODES {
+        public static final int LOLLIPOP = 21;
+    }
+}
@@ -0,0 +1,9 @@
+package android.system;
+
+// Stands in for the Android 5.0 class of the same name, which com.google.android:android lacks.
+public class ErrnoException extends Exception {
+
+    public ErrnoException(String functionName, Throwable cause) {
+        super(functionName + " failed: " + cause.getMessage(), cause);
+    }
+}
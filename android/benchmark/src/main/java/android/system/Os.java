@@ -0,0 +1,29 @@
+package android.system;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Stands in for the Android 5.0 class of the same name, implementing the calls CodePush makes with
+// java.nio.file, so that hard links behave as they do on a device.
+public final class Os {
+
+    private Os() {
+    }
+
+    public static void link(String oldPath, String newPath) throws ErrnoException {
+        try {
+            Files.createLink(Paths.get(newPath), Paths.get(oldPath));
+        } catch (IOException | UnsupportedOperationException e) {
+            throw new ErrnoException("link", e);
+        }
+    }
+
+    public static StructStat stat(String path) throws ErrnoException {
+        try {
+            return new StructStat(((Number) Files.getAttribute(Paths.get(path), "unix:nlink")).longValue());
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            throw new ErrnoException("stat", e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package android.system;
+
+// Stands in for the Android 5.0 class of the same name. Only the fields CodePush reads are kept.
+public final class StructStat {
+
+    public final long st_nlink;
+
+    StructStat(long st_nlink) {
+        this.st_nlink = st_nlink;
+    }
+}
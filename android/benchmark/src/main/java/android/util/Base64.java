@@ -0,0 +1,11 @@
+package android.util;
+
+// Stands in for the Android class of the same name. Only the default flags are supported.
+public class Base64 {
+
+    public static final int DEFAULT = 0;
+
+    public static byte[] decode(byte[] input, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(input);
+    }
+}
@@ -0,0 +1,15 @@
+package com.facebook.react.bridge;
+
+// Stands in for the React Native class of the same name. The real one creates maps and arrays
+// backed by the native bridge, which can't be loaded on a plain JVM, so these are the Java-only
+// equivalents that React Native itself uses in its unit tests.
+public class Arguments {
+
+    public static WritableMap createMap() {
+        return new JavaOnlyMap();
+    }
+
+    public static WritableArray createArray() {
+        return new JavaOnlyArray();
+    }
+}
@@ -0,0 +1,132 @@
+package com.facebook.react.bridge;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class JavaOnlyMap implements WritableMap {
+
+    private final Map<String, Object> mBackingMap = new HashMap<>();
+
+    @Override
+    public boolean hasKey(String name) {
+        return mBackingMap.containsKey(name);
+    }
+
+    @Override
+    public boolean isNull(String name) {
+        return mBackingMap.get(name) == null;
+    }
+
+    @Override
+    public boolean getBoolean(String name) {
+        return (Boolean) getValue(name);
+    }
+
+    @Override
+    public double getDouble(String name) {
+        return ((Number) getValue(name)).doubleValue();
+    }
+
+    @Override
+    public int getInt(String name) {
+        return ((Number) getValue(name)).intValue();
+    }
+
+    @Override
+    public String getString(String name) {
+        return (String) getValue(name);
+    }
+
+    @Override
+    public ReadableArray getArray(String name) {
+        return (ReadableArray) getValue(name);
+    }
+
+    @Override
+    public ReadableMap getMap(String name) {
+        return (ReadableMap) getValue(name);
+    }
+
+    @Override
+    public ReadableType getType(String name) {
+        Object value = getValue(name);
+        if (value == null) {
+            return ReadableType.Null;
+        } else if (value instanceof Boolean) {
+            return ReadableType.Boolean;
+        } else if (value instanceof Number) {
+            return ReadableType.Number;
+        } else if (value instanceof String) {
+            return ReadableType.String;
+        } else if (value instanceof ReadableMap) {
+            return ReadableType.Map;
+        } else {
+            return ReadableType.Array;
+        }
+    }
+
+    @Override
+    public ReadableMapKeySetIterator keySetIterator() {
+        final Iterator<String> iterator = mBackingMap.keySet().iterator();
+        return new ReadableMapKeySetIterator() {
+            @Override
+            public boolean hasNextKey() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String nextKey() {
+                return iterator.next();
+            }
+        };
+    }
+
+    @Override
+    public void putNull(String key) {
+        mBackingMap.put(key, null);
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        mBackingMap.put(key, value);
+    }
+
+    @Override
+    public void putDouble(String key, double value) {
+        mBackingMap.put(key, value);
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        mBackingMap.put(key, value);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        mBackingMap.put(key, value);
+    }
+
+    @Override
+    public void putArray(String key, WritableArray value) {
+        mBackingMap.put(key, value);
+    }
+
+    @Override
+    public void putMap(String key, WritableMap value) {
+        mBackingMap.put(key, value);
+    }
+
+    @Override
+    public void merge(ReadableMap source) {
+        mBackingMap.putAll(((JavaOnlyMap) source).mBackingMap);
+    }
+
+    private Object getValue(String name) {
+        if (!mBackingMap.containsKey(name)) {
+            throw new NoSuchKeyException(name);
+        }
+
+        return mBackingMap.get(name);
+    }
+}
@@ -0,0 +1,8 @@
+package com.facebook.react.bridge;
+
+public class NoSuchKeyException extends RuntimeException {
+
+    public NoSuchKeyException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,5 @@
+package com.facebook.react.bridge;
+
+// Stands in for the React Native class of the same name, which is backed by the native bridge.
+public class WritableNativeMap extends JavaOnlyMap {
+}
@@ -0,0 +1,10 @@
+package com.microsoft.codepush.react;
+
+// Stands in for the React Native module of the same name, which the update pipeline only asks
+// whether it runs in the plugin's test configuration.
+public class CodePush {
+
+    public static boolean isUsingTestConfiguration() {
+        return false;
+    }
+}
@@ -0,0 +1,70 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Keeps the shared preferences in memory instead of on disk, for tests of the code that reads and
+// writes the CodePush settings. Every instance that is created with the same values map sees the
+// same preferences, like a process that restarts.
+public class CodePushFakeContext extends Context {
+
+    private final Map<String, String> mPreferences;
+
+    public CodePushFakeContext(Map<String, String> preferences) {
+        mPreferences = preferences;
+    }
+
+    @Override
+    public AssetManager getAssets() {
+        return null;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return new SharedPreferences() {
+            @Override
+            public String getString(String key, String defValue) {
+                synchronized (mPreferences) {
+                    return mPreferences.containsKey(key) ? mPreferences.get(key) : defValue;
+                }
+            }
+
+            @Override
+            public Editor edit() {
+                final Map<String, String> changes = new HashMap<>();
+                return new Editor() {
+                    @Override
+                    public Editor putString(String key, String value) {
+                        changes.put(key, value);
+                        return this;
+                    }
+
+                    @Override
+                    public Editor remove(String key) {
+                        changes.put(key, null);
+                        return this;
+                    }
+
+                    @Override
+                    public boolean commit() {
+                        synchronized (mPreferences) {
+                            for (Map.Entry<String, String> change : changes.entrySet()) {
+                                if (change.getValue() == null) {
+                                    mPreferences.remove(change.getKey());
+                                } else {
+                                    mPreferences.put(change.getKey(), change.getValue());
+                                }
+                            }
+                        }
+
+                        return true;
+                    }
+                };
+            }
+        };
+    }
+}
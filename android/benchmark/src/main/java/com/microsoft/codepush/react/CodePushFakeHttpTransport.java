@@ -0,0 +1,157 @@
+package com.microsoft.codepush.react;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Serves responses from memory instead of the network, for tests and benchmarks of the download code.
+// It honors single byte range requests, including If-Range, like a typical CDN does.
+public class CodePushFakeHttpTransport implements CodePushHttpTransport {
+
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_PARTIAL = 206;
+    private static final int HTTP_NOT_FOUND = 404;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    private final Map<String, byte[]> mResponses = Collections.synchronizedMap(new HashMap<String, byte[]>());
+    private final List<CodePushHttpRequest> mRequests = Collections.synchronizedList(new ArrayList<CodePushHttpRequest>());
+    private volatile boolean mIsRangeSupported = true;
+    private volatile boolean mIsContentLengthSent = true;
+    private volatile int mMaxBodyLength = -1;
+
+    public void putResponse(String url, byte[] body) {
+        mResponses.put(url, body);
+    }
+
+    public void setIsRangeSupported(boolean isRangeSupported) {
+        mIsRangeSupported = isRangeSupported;
+    }
+
+    // Without a Content-Length, responses look like chunked ones.
+    public void setIsContentLengthSent(boolean isContentLengthSent) {
+        mIsContentLengthSent = isContentLengthSent;
+    }
+
+    // Ends every body after this many bytes, as a dropped connection would, while the headers still
+    // declare the whole length. Pass -1 to send whole bodies again.
+    public void setMaxBodyLength(int maxBodyLength) {
+        mMaxBodyLength = maxBodyLength;
+    }
+
+    public List<CodePushHttpRequest> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<>(mRequests);
+        }
+    }
+
+    public static String getEtag(byte[] body) {
+        return "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+    }
+
+    @Override
+    public CodePushHttpResponse execute(CodePushHttpRequest request) throws IOException {
+        mRequests.add(request);
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        byte[] body = mResponses.get(request.getUrl());
+        if (body == null) {
+            return new FakeResponse(HTTP_NOT_FOUND, headers, new byte[0], 0, 0);
+        }
+
+        String etag = getEtag(body);
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        headers.put("ETag", etag);
+        headers.put("Accept-Ranges", mIsRangeSupported ? "bytes" : "none");
+        int statusCode = HTTP_OK;
+        int start = 0;
+        int length = body.length;
+        if (range != null && range.startsWith("bytes=") && mIsRangeSupported && (ifRange == null || ifRange.equals(etag))) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            int rangeStart = Integer.parseInt(bounds[0]);
+            int rangeEnd = bounds[1].isEmpty() ? body.length - 1 : Math.min(Integer.parseInt(bounds[1]), body.length - 1);
+            if (rangeStart >= body.length || rangeStart > rangeEnd) {
+                statusCode = HTTP_RANGE_NOT_SATISFIABLE;
+                headers.put("Content-Range", "bytes */" + body.length);
+                length = 0;
+            } else {
+                statusCode = HTTP_PARTIAL;
+                headers.put("Content-Range", "bytes " + rangeStart + "-" + rangeEnd + "/" + body.length);
+                start = rangeStart;
+                length = rangeEnd - rangeStart + 1;
+            }
+        }
+
+        if (mIsContentLengthSent) {
+            headers.put("Content-Length", Integer.toString(length));
+        }
+
+        int maxBodyLength = mMaxBodyLength;
+        return new FakeResponse(statusCode, headers, body, start, maxBodyLength < 0 ? length : Math.min(length, maxBodyLength));
+    }
+
+    private static class FakeResponse implements CodePushHttpResponse {
+
+        private final int mStatusCode;
+        private final Map<String, String> mHeaders;
+        private final byte[] mBody;
+        private final int mStart;
+        private final int mLength;
+        private volatile boolean mIsClosed = false;
+
+        FakeResponse(int statusCode, Map<String, String> headers, byte[] body, int start, int length) {
+            mStatusCode = statusCode;
+            mHeaders = headers;
+            mBody = body;
+            mStart = start;
+            mLength = length;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mHeaders.get(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            throwIfClosed();
+            return new FilterInputStream(new ByteArrayInputStream(mBody, mStart, mLength)) {
+                @Override
+                public int read() throws IOException {
+                    throwIfClosed();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    throwIfClosed();
+                    return super.read(buffer, offset, length);
+                }
+            };
+        }
+
+        // Mirrors a socket that is closed while a read is in progress.
+        private void throwIfClosed() throws IOException {
+            if (mIsClosed) {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            mIsClosed = true;
+        }
+    }
+}
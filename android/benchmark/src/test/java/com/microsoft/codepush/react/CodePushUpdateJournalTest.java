@@ -0,0 +1,139 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Writes the journal of an install or a rollback as if the process died right after, then recovers
+// it with new instances over the same folder and preferences, as on the next start of the app.
+public class CodePushUpdateJournalTest {
+
+    private static final String OLD_PACKAGE_HASH = "1111111111111111111111111111111111111111111111111111111111111111";
+    private static final String CURRENT_PACKAGE_HASH = "2222222222222222222222222222222222222222222222222222222222222222";
+    private static final String NEW_PACKAGE_HASH = "3333333333333333333333333333333333333333333333333333333333333333";
+
+    private File mFolder;
+    private final Map<String, String> mPreferences = new HashMap<>();
+    private CodePushUpdateManager mUpdateManager;
+    private SettingsManager mSettingsManager;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("codepush-test", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+        mUpdateManager = new CodePushUpdateManager(mFolder.getPath());
+        mSettingsManager = new SettingsManager(new CodePushFakeContext(mPreferences));
+
+        // OLD_PACKAGE_HASH was installed first, then CURRENT_PACKAGE_HASH.
+        createPackageFolder(OLD_PACKAGE_HASH);
+        createPackageFolder(CURRENT_PACKAGE_HASH);
+        createPackageFolder(NEW_PACKAGE_HASH);
+        mUpdateManager.installPackage(createPackage(OLD_PACKAGE_HASH), false);
+        mUpdateManager.installPackage(createPackage(CURRENT_PACKAGE_HASH), false);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFileOrFolderSilently(mFolder);
+    }
+
+    @Test
+    public void interruptedInstallIsCompletedOnRecover() throws Exception {
+        // As CodePush.installPackage does, without applying the transition.
+        JSONObject transition = mUpdateManager.getInstallTransition(createPackage(NEW_PACKAGE_HASH), false);
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_PENDING_UPDATE_HASH_KEY, NEW_PACKAGE_HASH);
+        CodePushUtils.writeJsonToFile(transition, mUpdateManager.getJournalFilePath());
+
+        recover();
+
+        JSONObject info = readStatusFile();
+        assertEquals(NEW_PACKAGE_HASH, info.getString(CodePushConstants.CURRENT_PACKAGE_KEY));
+        assertEquals(CURRENT_PACKAGE_HASH, info.getString(CodePushConstants.PREVIOUS_PACKAGE_KEY));
+        SettingsManager settingsManager = new SettingsManager(new CodePushFakeContext(mPreferences));
+        assertTrue(settingsManager.isPendingUpdate(NEW_PACKAGE_HASH));
+        assertNull(settingsManager.getLastFailedUpdate());
+        assertFalse(getPackageFolder(OLD_PACKAGE_HASH).exists());
+        assertTrue(getPackageFolder(CURRENT_PACKAGE_HASH).exists());
+        assertTrue(getPackageFolder(NEW_PACKAGE_HASH).exists());
+        assertFalse(new File(mUpdateManager.getJournalFilePath()).exists());
+    }
+
+    @Test
+    public void interruptedRollbackIsCompletedOnRecover() throws Exception {
+        mSettingsManager.savePendingUpdate(CURRENT_PACKAGE_HASH, /* isLoading */true);
+        mSettingsManager.flush();
+
+        // As CodePush.rollbackPackage does. The process dies after the status is written, but
+        // before the settings are.
+        JSONObject transition = mUpdateManager.getRollbackTransition();
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_FAILED_UPDATE_KEY, mUpdateManager.getCurrentPackage());
+        CodePushUtils.setJSONValueForKey(transition, CodePushConstants.TRANSITION_REMOVE_PENDING_UPDATE_KEY, true);
+        CodePushUtils.writeJsonToFile(transition, mUpdateManager.getJournalFilePath());
+        mUpdateManager.updateTransitionStatus(transition);
+
+        recover();
+
+        JSONObject info = readStatusFile();
+        assertEquals(OLD_PACKAGE_HASH, info.getString(CodePushConstants.CURRENT_PACKAGE_KEY));
+        assertFalse(info.has(CodePushConstants.PREVIOUS_PACKAGE_KEY));
+        SettingsManager settingsManager = new SettingsManager(new CodePushFakeContext(mPreferences));
+        assertNull(settingsManager.getPendingUpdate());
+        assertTrue(settingsManager.isFailedHash(CURRENT_PACKAGE_HASH));
+        assertEquals(1, settingsManager.getFailedUpdates().length());
+        assertTrue(getPackageFolder(OLD_PACKAGE_HASH).exists());
+        assertFalse(getPackageFolder(CURRENT_PACKAGE_HASH).exists());
+        assertFalse(new File(mUpdateManager.getJournalFilePath()).exists());
+    }
+
+    @Test
+    public void unreadableJournalIsDiscarded() throws Exception {
+        File journalFile = new File(mUpdateManager.getJournalFilePath());
+        FileUtils.writeStringToFile("{", journalFile.getPath());
+
+        recover();
+
+        assertEquals(CURRENT_PACKAGE_HASH, readStatusFile().getString(CodePushConstants.CURRENT_PACKAGE_KEY));
+        assertTrue(getPackageFolder(OLD_PACKAGE_HASH).exists());
+        assertFalse(journalFile.exists());
+    }
+
+    // Recovers with new instances, as CodePush does when the app starts again.
+    private void recover() {
+        CodePushUpdateManager updateManager = new CodePushUpdateManager(mFolder.getPath());
+        SettingsManager settingsManager = new SettingsManager(new CodePushFakeContext(mPreferences));
+        new CodePushUpdateJournal(updateManager, settingsManager).recover();
+    }
+
+    private JSONObject readStatusFile() throws Exception {
+        return CodePushUtils.getJsonObjectFromFile(new File(mFolder, "CodePush/" + CodePushConstants.STATUS_FILE).getPath());
+    }
+
+    private File getPackageFolder(String packageHash) {
+        return new File(mUpdateManager.getPackageFolderPath(packageHash));
+    }
+
+    private void createPackageFolder(String packageHash) throws IOException {
+        getPackageFolder(packageHash).mkdirs();
+        CodePushUtils.writeJsonToFile(createPackage(packageHash),
+                CodePushUtils.appendPathComponent(getPackageFolder(packageHash).getPath(), CodePushConstants.PACKAGE_FILE_NAME));
+    }
+
+    private static JSONObject createPackage(String packageHash) {
+        JSONObject updatePackage = new JSONObject();
+        CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.PACKAGE_HASH_KEY, packageHash);
+        CodePushUtils.setJSONValueForKey(updatePackage, "label", "v" + packageHash.charAt(0));
+        return updatePackage;
+    }
+}
@@ -0,0 +1,284 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Downloads updates from an in-process fake server, to check that interrupted downloads are resumed
+// only when the server sends the rest of the same package, and what is cleaned up around downloads.
+public class CodePushUpdateManagerTest {
+
+    private static final String PACKAGE_HASH = "1111111111111111111111111111111111111111111111111111111111111111";
+    private static final String DOWNLOAD_URL = "https://codepush.test/update";
+    private static final String BUNDLE_FILE_NAME = "index.android.bundle";
+
+    private File mFolder;
+    private CodePushFakeHttpTransport mTransport;
+    private CodePushUpdateManager mUpdateManager;
+    private byte[] mBundle;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("codepush-test", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+        mTransport = new CodePushFakeHttpTransport();
+        mUpdateManager = new CodePushUpdateManager(mFolder.getPath());
+        mUpdateManager.setHttpTransport(mTransport);
+        mBundle = createBundle(1, 100000);
+        mTransport.putResponse(DOWNLOAD_URL, mBundle);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFileOrFolderSilently(mFolder);
+    }
+
+    @Test
+    public void downloadResumesWithRangeAndIfRange() throws IOException {
+        interruptDownloadAfter(300000);
+
+        downloadPackage();
+
+        List<CodePushHttpRequest> requests = mTransport.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("bytes=300000-", requests.get(1).getHeader("Range"));
+        assertEquals(CodePushFakeHttpTransport.getEtag(mBundle), requests.get(1).getHeader("If-Range"));
+        assertArrayEquals(mBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void downloadStartsOverWhenServerIgnoresRange() throws IOException {
+        interruptDownloadAfter(300000);
+        mTransport.setIsRangeSupported(false);
+
+        downloadPackage();
+
+        List<CodePushHttpRequest> requests = mTransport.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("bytes=300000-", requests.get(1).getHeader("Range"));
+        assertArrayEquals(mBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void downloadResumesAgainAfterResumedBodyIsTruncated() throws IOException {
+        interruptDownloadAfter(300000);
+        interruptDownloadAfter(200000);
+
+        downloadPackage();
+
+        List<CodePushHttpRequest> requests = mTransport.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals("bytes=300000-", requests.get(1).getHeader("Range"));
+        assertEquals("bytes=500000-", requests.get(2).getHeader("Range"));
+        assertArrayEquals(mBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void downloadStartsOverWhenPackageChanged() throws IOException {
+        interruptDownloadAfter(300000);
+        byte[] newBundle = createBundle(2, 100000);
+        mTransport.putResponse(DOWNLOAD_URL, newBundle);
+
+        downloadPackage();
+
+        // The ETag no longer matches the If-Range of the second request, so the whole package is sent.
+        List<CodePushHttpRequest> requests = mTransport.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals(CodePushFakeHttpTransport.getEtag(mBundle), requests.get(1).getHeader("If-Range"));
+        assertArrayEquals(newBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void downloadStartsOverWhenServerSendsAnotherRange() throws IOException {
+        interruptDownloadAfter(300000);
+        mUpdateManager.setHttpTransport(new CodePushHttpTransport() {
+            @Override
+            public CodePushHttpResponse execute(CodePushHttpRequest request) throws IOException {
+                final CodePushHttpResponse response = mTransport.execute(request);
+                if (response.getStatusCode() != 206) {
+                    return response;
+                }
+
+                // Declares the range as if it started one byte later than the one requested.
+                return new CodePushHttpResponse() {
+                    @Override
+                    public int getStatusCode() {
+                        return response.getStatusCode();
+                    }
+
+                    @Override
+                    public String getHeader(String name) {
+                        return name.equalsIgnoreCase("Content-Range")
+                                ? "bytes 300001-" + (mBundle.length - 1) + "/" + mBundle.length
+                                : response.getHeader(name);
+                    }
+
+                    @Override
+                    public InputStream getBody() throws IOException {
+                        return response.getBody();
+                    }
+
+                    @Override
+                    public void close() {
+                        response.close();
+                    }
+                };
+            }
+        });
+
+        downloadPackage();
+
+        List<CodePushHttpRequest> requests = mTransport.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals("bytes=300000-", requests.get(1).getHeader("Range"));
+        assertNull(requests.get(2).getHeader("Range"));
+        assertArrayEquals(mBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void downloadSucceedsWithoutContentLength() throws IOException {
+        mTransport.setIsContentLengthSent(false);
+
+        downloadPackage();
+
+        assertEquals(1, mTransport.getRequests().size());
+        assertArrayEquals(mBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void downloadResumesWithoutContentLength() throws IOException {
+        interruptDownloadAfter(300000);
+        mTransport.setIsContentLengthSent(false);
+
+        downloadPackage();
+
+        List<CodePushHttpRequest> requests = mTransport.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals("bytes=300000-", requests.get(1).getHeader("Range"));
+        assertArrayEquals(mBundle, readDownloadedBundle());
+    }
+
+    @Test
+    public void blobsAreRemovedAfterBlobStoreIsDisabled() throws IOException {
+        File blobStoreFolder = new File(mFolder, "CodePush/" + CodePushConstants.BLOB_STORE_FOLDER_NAME);
+        blobStoreFolder.mkdirs();
+        File unusedBlob = new File(blobStoreFolder, "unused");
+        writeFile(unusedBlob, "unused");
+        File usedBlob = new File(blobStoreFolder, "used");
+        writeFile(usedBlob, "used");
+        File stalePackageFolder = new File(mUpdateManager.getPackageFolderPath(PACKAGE_HASH));
+        stalePackageFolder.mkdirs();
+        File packageFile = new File(mFolder, "CodePush/other/file");
+        packageFile.getParentFile().mkdirs();
+        Files.createLink(packageFile.toPath(), usedBlob.toPath());
+
+        // Replacing the stale package folder sweeps the store.
+        downloadPackage();
+
+        assertFalse(unusedBlob.exists());
+        assertTrue(usedBlob.exists());
+
+        packageFile.delete();
+        stalePackageFolder.mkdirs();
+        downloadPackage();
+
+        assertFalse(blobStoreFolder.exists());
+    }
+
+    @Test
+    public void packageWrittenByAnotherInstanceIsNotServedStale() throws IOException {
+        downloadPackage(mUpdateManager, "v1");
+        assertEquals("v1", mUpdateManager.getPackage(PACKAGE_HASH).optString("label"));
+
+        // Like a prefetch job that downloads through its own instance.
+        CodePushUpdateManager otherUpdateManager = new CodePushUpdateManager(mFolder.getPath());
+        otherUpdateManager.setHttpTransport(mTransport);
+        downloadPackage(otherUpdateManager, "v2");
+
+        assertEquals("v2", mUpdateManager.getPackage(PACKAGE_HASH).optString("label"));
+    }
+
+    private void interruptDownloadAfter(int maxBodyLength) throws IOException {
+        mTransport.setMaxBodyLength(maxBodyLength);
+        try {
+            downloadPackage();
+            fail("The truncated download should have failed.");
+        } catch (CodePushUnknownException e) {
+            // Expected, the partial file is kept for the next attempt.
+        }
+
+        assertNull(mUpdateManager.getPackage(PACKAGE_HASH));
+        mTransport.setMaxBodyLength(-1);
+    }
+
+    private void downloadPackage() throws IOException {
+        downloadPackage(mUpdateManager, "v1");
+    }
+
+    private static void downloadPackage(CodePushUpdateManager updateManager, String label) throws IOException {
+        JSONObject updatePackage = new JSONObject();
+        CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.PACKAGE_HASH_KEY, PACKAGE_HASH);
+        CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.DOWNLOAD_URL_KEY, DOWNLOAD_URL);
+        CodePushUtils.setJSONValueForKey(updatePackage, "label", label);
+        updateManager.downloadPackage(updatePackage, BUNDLE_FILE_NAME, new DownloadProgressCallback() {
+            @Override
+            public void call(DownloadProgress downloadProgress) {
+            }
+        }, null);
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] readDownloadedBundle() throws IOException {
+        File bundleFile = new File(mUpdateManager.getPackageFolderPath(PACKAGE_HASH), BUNDLE_FILE_NAME);
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(bundleFile);
+        try {
+            byte[] buffer = new byte[8192];
+            int numBytesRead;
+            while ((numBytesRead = in.read(buffer)) >= 0) {
+                bundle.write(buffer, 0, numBytesRead);
+            }
+        } finally {
+            in.close();
+        }
+
+        return bundle.toByteArray();
+    }
+
+    // A plain JS bundle, which isn't mistaken for a zip or zstd package.
+    private static byte[] createBundle(int version, int lineCount) {
+        StringBuilder bundle = new StringBuilder();
+        for (int i = 0; i < lineCount; i++) {
+            bundle.append("var v").append(version).append("_").append(i).append(" = ").append(i).append(";\n");
+        }
+
+        return bundle.toString().getBytes();
+    }
+}
@@ -0,0 +1,115 @@
+package com.microsoft.codepush.react;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+// Checks that the hashes used to verify an update always describe the files that end up on disk,
+// since they are also saved with the package and reused by every later diff update.
+public class CodePushUpdateUtilsTest {
+
+    private File mFolder;
+    private File mCurrentFolder;
+    private File mDiffFolder;
+    private File mNewFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("codepush-test", "");
+        mFolder.delete();
+        mCurrentFolder = new File(mFolder, "current");
+        mDiffFolder = new File(mFolder, "diff");
+        mNewFolder = new File(mFolder, "new");
+        mCurrentFolder.mkdirs();
+        mDiffFolder.mkdirs();
+        writeFile(new File(mCurrentFolder, "index.android.bundle"), "BBBB-legit");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFileOrFolderSilently(mFolder);
+    }
+
+    @Test
+    public void applyDiffUpdateRejectsFileThatIsShippedAndPatched() throws IOException {
+        writeFile(new File(mDiffFolder, "index.android.bundle"), "EVIL-shipped");
+        writeFile(new File(mDiffFolder, "index.android.bundle" + CodePushConstants.DIFF_PATCH_FILE_EXTENSION), "BSDIFF40");
+        writeDiffManifest("{\"deletedFiles\":[],\"patchedFiles\":[\"index.android.bundle\"]}");
+
+        assertDiffRejected();
+    }
+
+    @Test
+    public void applyDiffUpdateRejectsFileThatIsDeletedAndPatched() throws IOException {
+        writeFile(new File(mDiffFolder, "index.android.bundle" + CodePushConstants.DIFF_PATCH_FILE_EXTENSION), "BSDIFF40");
+        writeDiffManifest("{\"deletedFiles\":[\"index.android.bundle\"],\"patchedFiles\":[\"index.android.bundle\"]}");
+
+        assertDiffRejected();
+    }
+
+    @Test
+    public void unzipStreamHashesLastEntryWrittenToFile() throws IOException {
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(zipBytes);
+        addZipEntry(zipStream, "index.android.bundle", "BBBB-legit");
+        addZipEntry(zipStream, "./index.android.bundle", "EVIL-shipped");
+        zipStream.close();
+
+        Map<String, String> fileHashes = FileUtils.unzipStream(new ByteArrayInputStream(zipBytes.toByteArray()), mNewFolder.getPath());
+
+        assertEquals(1, fileHashes.size());
+        assertEquals(CodePushUpdateUtils.computeFileHash(new File(mNewFolder, "index.android.bundle")), fileHashes.get("index.android.bundle"));
+    }
+
+    @Test
+    public void unzipStreamRejectsEntryOutsideDestination() throws IOException {
+        ByteArrayOutputStream zipBytes = new ByteArrayOutputStream();
+        ZipOutputStream zipStream = new ZipOutputStream(zipBytes);
+        addZipEntry(zipStream, "../outside", "EVIL-shipped");
+        zipStream.close();
+
+        try {
+            FileUtils.unzipStream(new ByteArrayInputStream(zipBytes.toByteArray()), mNewFolder.getPath());
+            fail("The entry outside of the destination was extracted.");
+        } catch (CodePushInvalidUpdateException e) {
+            assertFalse(new File(mFolder, "outside").exists());
+        }
+    }
+
+    private void assertDiffRejected() throws IOException {
+        try {
+            CodePushUpdateUtils.applyDiffUpdate(new File(mDiffFolder, CodePushConstants.DIFF_MANIFEST_FILE_NAME).getPath(),
+                    mCurrentFolder.getPath(), mDiffFolder.getPath(), mNewFolder.getPath());
+            fail("The diff update was applied.");
+        } catch (CodePushInvalidUpdateException e) {
+            assertFalse(new File(mNewFolder, "index.android.bundle").exists());
+        }
+    }
+
+    private void writeDiffManifest(String contents) throws IOException {
+        writeFile(new File(mDiffFolder, CodePushConstants.DIFF_MANIFEST_FILE_NAME), contents);
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.writeStringToFile(contents, file.getPath());
+    }
+
+    private static void addZipEntry(ZipOutputStream zipStream, String name, String contents) throws IOException {
+        zipStream.putNextEntry(new ZipEntry(name));
+        zipStream.write(contents.getBytes("UTF-8"));
+        zipStream.closeEntry();
+    }
+}
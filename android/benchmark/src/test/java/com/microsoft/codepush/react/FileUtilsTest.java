@@ -0,0 +1,192 @@
+package com.microsoft.codepush.react;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Extracts zstd-compressed tar archives written by commons-compress, the way GNU tar and pax
+// writers lay them out, including entries that must never end up on disk.
+public class FileUtilsTest {
+
+    // Longer than the 100 bytes of the name field and the 155 bytes of the prefix field of a ustar header.
+    private static final String LONG_FILE_NAME = createLongFileName();
+
+    private File mFolder;
+    private File mDestinationFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("codepush-test", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+        mDestinationFolder = new File(mFolder, "unzipped");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFileOrFolderSilently(mFolder);
+    }
+
+    @Test
+    public void untarReadsGnuLongNames() throws IOException {
+        byte[] archive = createArchive(TarArchiveOutputStream.LONGFILE_GNU, new TarArchiveEntry[]{
+                createFileEntry(LONG_FILE_NAME, "long")
+        }, new String[]{"long"});
+
+        Map<String, String> fileHashes = extractArchive(archive);
+
+        assertEquals(1, fileHashes.size());
+        assertTrue(fileHashes.containsKey(LONG_FILE_NAME));
+        assertArrayEquals("long".getBytes(), Files.readAllBytes(new File(mDestinationFolder, LONG_FILE_NAME).toPath()));
+    }
+
+    @Test
+    public void untarReadsPaxLongNames() throws IOException {
+        byte[] archive = createArchive(TarArchiveOutputStream.LONGFILE_POSIX, new TarArchiveEntry[]{
+                createFileEntry(LONG_FILE_NAME, "long"),
+                createFileEntry("index.android.bundle", "bundle")
+        }, new String[]{"long", "bundle"});
+
+        Map<String, String> fileHashes = extractArchive(archive);
+
+        // The pax path only applies to the entry right after it.
+        assertEquals(2, fileHashes.size());
+        assertArrayEquals("long".getBytes(), Files.readAllBytes(new File(mDestinationFolder, LONG_FILE_NAME).toPath()));
+        assertArrayEquals("bundle".getBytes(), Files.readAllBytes(new File(mDestinationFolder, "index.android.bundle").toPath()));
+    }
+
+    @Test
+    public void untarRejectsEntriesOutsideOfDestination() throws IOException {
+        byte[] archive = createArchive(TarArchiveOutputStream.LONGFILE_ERROR, new TarArchiveEntry[]{
+                createFileEntry("../outside.js", "outside")
+        }, new String[]{"outside"});
+
+        try {
+            extractArchive(archive);
+            fail("The entry outside of the update should have been rejected.");
+        } catch (CodePushInvalidUpdateException e) {
+            // Expected.
+        }
+
+        assertFalse(new File(mFolder, "outside.js").exists());
+    }
+
+    @Test
+    public void untarRejectsTruncatedArchives() throws IOException {
+        byte[] archive = createArchive(TarArchiveOutputStream.LONGFILE_ERROR, new TarArchiveEntry[]{
+                createFileEntry("index.android.bundle", createContents(4096))
+        }, new String[]{createContents(4096)});
+
+        // Ends in the middle of the contents of the file.
+        try {
+            extractArchive(Arrays.copyOf(archive, 512 + 2048));
+            fail("The truncated archive should have been rejected.");
+        } catch (CodePushInvalidUpdateException e) {
+            // Expected.
+        }
+
+        // Ends in the middle of the header of the file.
+        try {
+            extractArchive(Arrays.copyOf(archive, 256));
+            fail("The truncated archive should have been rejected.");
+        } catch (CodePushInvalidUpdateException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void untarSkipsSymbolicLinks() throws IOException {
+        TarArchiveEntry linkEntry = new TarArchiveEntry("assets/passwd", TarArchiveEntry.LF_SYMLINK);
+        linkEntry.setLinkName("/etc/passwd");
+        TarArchiveEntry hardLinkEntry = new TarArchiveEntry("assets/hosts", TarArchiveEntry.LF_LINK);
+        hardLinkEntry.setLinkName("/etc/hosts");
+        byte[] archive = createArchive(TarArchiveOutputStream.LONGFILE_ERROR, new TarArchiveEntry[]{
+                linkEntry,
+                hardLinkEntry,
+                createFileEntry("index.android.bundle", "bundle")
+        }, new String[]{null, null, "bundle"});
+
+        Map<String, String> fileHashes = extractArchive(archive);
+
+        assertEquals(1, fileHashes.size());
+        assertFalse(Files.exists(new File(mDestinationFolder, "assets/passwd").toPath(), LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(new File(mDestinationFolder, "assets/hosts").toPath(), LinkOption.NOFOLLOW_LINKS));
+        assertArrayEquals("bundle".getBytes(), Files.readAllBytes(new File(mDestinationFolder, "index.android.bundle").toPath()));
+    }
+
+    private Map<String, String> extractArchive(byte[] archive) throws IOException {
+        ByteArrayOutputStream compressedArchive = new ByteArrayOutputStream();
+        OutputStream out = new ZstdOutputStream(compressedArchive);
+        try {
+            out.write(archive);
+        } finally {
+            out.close();
+        }
+
+        return FileUtils.extractTarZstdStream(new ByteArrayInputStream(compressedArchive.toByteArray()), mDestinationFolder.getPath());
+    }
+
+    // Writes a tar archive of the given entries, where contents holds the contents of each regular file.
+    private static byte[] createArchive(int longFileMode, TarArchiveEntry[] entries, String[] contents) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        TarArchiveOutputStream out = new TarArchiveOutputStream(archive);
+        try {
+            out.setLongFileMode(longFileMode);
+            for (int i = 0; i < entries.length; i++) {
+                out.putArchiveEntry(entries[i]);
+                if (contents[i] != null) {
+                    out.write(contents[i].getBytes());
+                }
+
+                out.closeArchiveEntry();
+            }
+        } finally {
+            out.close();
+        }
+
+        return archive.toByteArray();
+    }
+
+    private static TarArchiveEntry createFileEntry(String name, String contents) {
+        TarArchiveEntry entry = new TarArchiveEntry(name, true);
+        entry.setSize(contents.getBytes().length);
+        return entry;
+    }
+
+    private static String createContents(int length) {
+        StringBuilder contents = new StringBuilder();
+        while (contents.length() < length) {
+            contents.append("var v").append(contents.length()).append(";\n");
+        }
+
+        return contents.substring(0, length);
+    }
+
+    private static String createLongFileName() {
+        StringBuilder fileName = new StringBuilder("assets");
+        for (int i = 0; fileName.length() < 300; i++) {
+            fileName.append("/folder").append(i);
+        }
+
+        return fileName.append("/image.png").toString();
+    }
+}
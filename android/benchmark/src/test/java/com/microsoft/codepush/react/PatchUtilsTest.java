@@ -0,0 +1,238 @@
+package com.microsoft.codepush.react;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+// Applies patches written from known control tuples, which move both forwards and backwards in the
+// old file, so that any misread tuple shows up as different bytes rather than only as a hash mismatch.
+public class PatchUtilsTest {
+
+    private static final long[][] CONTROLS = {
+            // Change some of the first 1000 bytes, insert 8 new ones and skip 500 old ones.
+            {1000, 8, 500},
+            // Keep the rest of the old file, then go back to its start.
+            {2500, 0, -4000},
+            // Repeat its first 200 bytes and append 5 new ones.
+            {200, 5, 0}
+    };
+
+    private File mFolder;
+    private File mOldFile;
+    private File mPatchFile;
+    private File mNewFile;
+    private byte[] mOldData;
+    private byte[] mNewData;
+
+    @Before
+    public void setUp() throws IOException {
+        mFolder = File.createTempFile("codepush-test", "");
+        mFolder.delete();
+        mFolder.mkdirs();
+        mOldFile = new File(mFolder, "old");
+        mPatchFile = new File(mFolder, "patch");
+        mNewFile = new File(mFolder, "new");
+
+        StringBuilder oldData = new StringBuilder();
+        for (int i = 0; oldData.length() < 4000; i++) {
+            oldData.append("var v").append(i).append(" = ").append(i).append(";\n");
+        }
+
+        mOldData = oldData.substring(0, 4000).getBytes("US-ASCII");
+        ByteArrayOutputStream newData = new ByteArrayOutputStream();
+        byte[] head = Arrays.copyOfRange(mOldData, 0, 1000);
+        for (int i = 0; i < head.length; i += 97) {
+            head[i] = (byte) ('A' + i % 26);
+        }
+
+        newData.write(head);
+        newData.write("INSERTED".getBytes("US-ASCII"));
+        newData.write(mOldData, 1500, 2500);
+        newData.write(mOldData, 0, 200);
+        newData.write("TAIL!".getBytes("US-ASCII"));
+        mNewData = newData.toByteArray();
+        writeFile(mOldFile, mOldData);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteFileOrFolderSilently(mFolder);
+    }
+
+    @Test
+    public void applyPatchRoundTripsUncompressedPatch() throws IOException {
+        writeFile(mPatchFile, createPatch(CONTROLS, mNewData.length, false));
+
+        assertPatchApplied();
+    }
+
+    @Test
+    public void applyPatchRoundTripsStandardBsdiffPatch() throws IOException {
+        writeFile(mPatchFile, createPatch(CONTROLS, mNewData.length, true));
+
+        assertPatchApplied();
+    }
+
+    @Test
+    public void applyPatchRejectsTruncatedPatch() throws IOException {
+        byte[] patch = createPatch(CONTROLS, mNewData.length, false);
+        writeFile(mPatchFile, Arrays.copyOf(patch, patch.length - 3));
+
+        assertPatchRejected();
+    }
+
+    @Test
+    public void applyPatchRejectsTruncatedStandardBsdiffPatch() throws IOException {
+        byte[] patch = createPatch(CONTROLS, mNewData.length, true);
+        writeFile(mPatchFile, Arrays.copyOf(patch, patch.length - 3));
+
+        assertPatchRejected();
+    }
+
+    @Test
+    public void applyPatchRejectsCorruptStandardBsdiffPatch() throws IOException {
+        byte[] patch = createPatch(CONTROLS, mNewData.length, true);
+        patch[patch.length - 20] ^= 0x55;
+        writeFile(mPatchFile, patch);
+
+        assertPatchRejected();
+    }
+
+    @Test
+    public void applyPatchRejectsControlTupleBeyondNewFile() throws IOException {
+        writeFile(mPatchFile, createPatch(CONTROLS, mNewData.length - 1, false));
+
+        assertPatchRejected();
+    }
+
+    @Test
+    public void applyPatchRejectsUnknownFormat() throws IOException {
+        byte[] patch = createPatch(CONTROLS, mNewData.length, false);
+        patch[7] = '1';
+        writeFile(mPatchFile, patch);
+
+        assertPatchRejected();
+    }
+
+    private void assertPatchApplied() throws IOException {
+        String hash = PatchUtils.applyPatch(mOldFile, mPatchFile, mNewFile);
+
+        assertArrayEquals(mNewData, readFile(mNewFile));
+        assertEquals(CodePushUpdateUtils.computeFileHash(mNewFile), hash);
+    }
+
+    private void assertPatchRejected() throws IOException {
+        try {
+            String hash = PatchUtils.applyPatch(mOldFile, mPatchFile, mNewFile);
+            assertFalse("The patch was applied as is.", Arrays.equals(mNewData, readFile(mNewFile)));
+            fail("The patch should have been rejected, but produced a file with the hash " + hash + ".");
+        } catch (CodePushInvalidUpdateException e) {
+            // Expected.
+        }
+    }
+
+    // Writes a bsdiff 4.x patch that turns the old data into the new data with the given control
+    // tuples of {diff length, extra length, old file seek}.
+    private byte[] createPatch(long[][] controls, long newSize, boolean isCompressed) throws IOException {
+        ByteArrayOutputStream controlBlock = new ByteArrayOutputStream();
+        ByteArrayOutputStream diffBlock = new ByteArrayOutputStream();
+        ByteArrayOutputStream extraBlock = new ByteArrayOutputStream();
+        int oldPosition = 0;
+        int newPosition = 0;
+        for (long[] control : controls) {
+            for (long value : control) {
+                controlBlock.write(encodeOffset(value));
+            }
+
+            for (int i = 0; i < control[0]; i++) {
+                diffBlock.write(mNewData[newPosition + i] - mOldData[oldPosition + i]);
+            }
+
+            newPosition += control[0];
+            oldPosition += control[0];
+            extraBlock.write(mNewData, newPosition, (int) control[1]);
+            newPosition += control[1];
+            oldPosition += control[2];
+        }
+
+        byte[] control = compressBlock(controlBlock.toByteArray(), isCompressed);
+        byte[] diff = compressBlock(diffBlock.toByteArray(), isCompressed);
+        byte[] extra = compressBlock(extraBlock.toByteArray(), isCompressed);
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        patch.write((isCompressed ? "BSDIFF40" : "BSDIFF4R").getBytes("US-ASCII"));
+        patch.write(encodeOffset(control.length));
+        patch.write(encodeOffset(diff.length));
+        patch.write(encodeOffset(newSize));
+        patch.write(control);
+        patch.write(diff);
+        patch.write(extra);
+        return patch.toByteArray();
+    }
+
+    private static byte[] compressBlock(byte[] block, boolean isCompressed) throws IOException {
+        if (!isCompressed) {
+            return block;
+        }
+
+        ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream();
+        OutputStream compressedStream = new BZip2CompressorOutputStream(compressedBlock);
+        compressedStream.write(block);
+        compressedStream.close();
+        return compressedBlock.toByteArray();
+    }
+
+    // 8 byte little-endian sign-magnitude integers, as in bsdiff.
+    private static byte[] encodeOffset(long value) {
+        byte[] encoded = new byte[8];
+        long magnitude = Math.abs(value);
+        for (int i = 0; i < 8; i++) {
+            encoded[i] = (byte) (magnitude >>> (8 * i));
+        }
+
+        if (value < 0) {
+            encoded[7] |= 0x80;
+        }
+
+        return encoded;
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int numBytesRead;
+            while ((numBytesRead = in.read(buffer)) >= 0) {
+                data.write(buffer, 0, numBytesRead);
+            }
+        } finally {
+            in.close();
+        }
+
+        return data.toByteArray();
+    }
+}
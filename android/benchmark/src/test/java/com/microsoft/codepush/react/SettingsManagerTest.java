@@ -0,0 +1,136 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+// Checks the limits of the failed update registry and how the records written by earlier versions,
+// which hold the full package metadata, are read.
+public class SettingsManagerTest {
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final Map<String, String> mPreferences = new HashMap<>();
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new CodePushFakeContext(mPreferences);
+    }
+
+    @Test
+    public void onlyTheMostRecentFailedUpdatesAreKept() throws JSONException {
+        SettingsManager settingsManager = new SettingsManager(mContext);
+        for (int i = 0; i < 55; i++) {
+            settingsManager.saveFailedUpdate(createPackage(i));
+        }
+
+        // An update that fails again counts as the most recent one.
+        settingsManager.saveFailedUpdate(createPackage(5));
+
+        JSONArray failedUpdates = settingsManager.getFailedUpdates();
+        assertEquals(50, failedUpdates.length());
+        assertEquals(getPackageHash(6), failedUpdates.getJSONObject(0).getString(CodePushConstants.PACKAGE_HASH_KEY));
+        assertEquals(getPackageHash(5), settingsManager.getLastFailedUpdate().getString(CodePushConstants.PACKAGE_HASH_KEY));
+        assertFalse(settingsManager.isFailedHash(getPackageHash(4)));
+        assertTrue(settingsManager.isFailedHash(getPackageHash(5)));
+
+        settingsManager.flush();
+        assertEquals(50, new SettingsManager(mContext).getFailedUpdates().length());
+    }
+
+    @Test
+    public void failedUpdatesExpireAfterNinetyDays() throws JSONException {
+        long now = System.currentTimeMillis();
+        JSONArray storedFailedUpdates = new JSONArray();
+        storedFailedUpdates.put(createFailedUpdateRecord(0, now - 91 * DAY_MILLIS));
+        storedFailedUpdates.put(createFailedUpdateRecord(1, now - 89 * DAY_MILLIS));
+        mPreferences.put(CodePushConstants.FAILED_UPDATES_KEY, storedFailedUpdates.toString());
+
+        SettingsManager settingsManager = new SettingsManager(mContext);
+
+        assertFalse(settingsManager.isFailedHash(getPackageHash(0)));
+        assertTrue(settingsManager.isFailedHash(getPackageHash(1)));
+        settingsManager.flush();
+        assertEquals(1, new JSONArray(mPreferences.get(CodePushConstants.FAILED_UPDATES_KEY)).length());
+    }
+
+    @Test
+    public void failedUpdatesOfEarlierVersionsAreMigrated() throws JSONException {
+        JSONArray storedFailedUpdates = new JSONArray();
+        for (int i = 0; i < 3; i++) {
+            storedFailedUpdates.put(createPackage(i));
+        }
+
+        mPreferences.put(CodePushConstants.FAILED_UPDATES_KEY, storedFailedUpdates.toString());
+        long migrationTime = System.currentTimeMillis();
+
+        SettingsManager settingsManager = new SettingsManager(mContext);
+
+        JSONObject lastFailedUpdate = settingsManager.getLastFailedUpdate();
+        assertEquals(getPackageHash(2), lastFailedUpdate.getString(CodePushConstants.PACKAGE_HASH_KEY));
+        assertEquals("v2", lastFailedUpdate.getString("label"));
+        assertEquals("1.0.0", lastFailedUpdate.getString("appVersion"));
+        assertEquals("deployment-key", lastFailedUpdate.getString("deploymentKey"));
+        assertTrue(lastFailedUpdate.getLong("failedTime") >= migrationTime);
+        assertFalse(lastFailedUpdate.has("description"));
+        assertFalse(lastFailedUpdate.has("downloadUrl"));
+        assertTrue(settingsManager.isFailedHash(getPackageHash(0)));
+
+        // The compact records replace the stored ones.
+        settingsManager.flush();
+        JSONArray migratedFailedUpdates = new JSONArray(mPreferences.get(CodePushConstants.FAILED_UPDATES_KEY));
+        assertEquals(3, migratedFailedUpdates.length());
+        assertEquals(5, migratedFailedUpdates.getJSONObject(0).length());
+    }
+
+    @Test
+    public void unreadableFailedUpdatesAreCleared() {
+        mPreferences.put(CodePushConstants.FAILED_UPDATES_KEY, "{");
+
+        SettingsManager settingsManager = new SettingsManager(mContext);
+
+        assertNull(settingsManager.getLastFailedUpdate());
+        settingsManager.flush();
+        assertFalse(mPreferences.containsKey(CodePushConstants.FAILED_UPDATES_KEY));
+    }
+
+    private static String getPackageHash(int index) {
+        return String.format("%064d", index);
+    }
+
+    // The metadata of a package, as earlier versions saved it when it failed.
+    private static JSONObject createPackage(int index) {
+        JSONObject updatePackage = new JSONObject();
+        CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.PACKAGE_HASH_KEY, getPackageHash(index));
+        CodePushUtils.setJSONValueForKey(updatePackage, "label", "v" + index);
+        CodePushUtils.setJSONValueForKey(updatePackage, "appVersion", "1.0.0");
+        CodePushUtils.setJSONValueForKey(updatePackage, "deploymentKey", "deployment-key");
+        CodePushUtils.setJSONValueForKey(updatePackage, "description", "Update " + index);
+        CodePushUtils.setJSONValueForKey(updatePackage, "downloadUrl", "https://codepush.test/update" + index);
+        CodePushUtils.setJSONValueForKey(updatePackage, "packageSize", 1024);
+        return updatePackage;
+    }
+
+    private static JSONObject createFailedUpdateRecord(int index, long failedTime) {
+        JSONObject failedUpdateRecord = new JSONObject();
+        CodePushUtils.setJSONValueForKey(failedUpdateRecord, CodePushConstants.PACKAGE_HASH_KEY, getPackageHash(index));
+        CodePushUtils.setJSONValueForKey(failedUpdateRecord, "label", "v" + index);
+        CodePushUtils.setJSONValueForKey(failedUpdateRecord, "appVersion", "1.0.0");
+        CodePushUtils.setJSONValueForKey(failedUpdateRecord, "deploymentKey", "deployment-key");
+        CodePushUtils.setJSONValueForKey(failedUpdateRecord, "failedTime", failedTime);
+        return failedUpdateRecord;
+    }
+}
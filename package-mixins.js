@@ -37,6 +37,37 @@ module.exports = (NativeCodePush) => {
         }
       },
 
+      // Downloads the update in the background once the device meets the given conditions, so that a
+      // later call to download() completes right away. Only implemented on Android 5.0 and above, and
+      // resolves to false wherever it isn't supported.
+      async prefetch(options = {}) {
+        if (!this.downloadUrl) {
+          throw new Error("Cannot prefetch an update without a download url");
+        }
+
+        if (!NativeCodePush.prefetchUpdate) {
+          return false;
+        }
+
+        const updatePackageCopy = Object.assign({}, this);
+        Object.keys(updatePackageCopy).forEach((key) => (typeof updatePackageCopy[key] === 'function') && delete updatePackageCopy[key]);
+        return await NativeCodePush.prefetchUpdate(updatePackageCopy, options);
+      },
+
+      // The following are only implemented on Android, and resolve to false wherever the
+      // native module doesn't support them or no download of this package is in progress.
+      async cancelDownload() {
+        return NativeCodePush.cancelDownload ? await NativeCodePush.cancelDownload(this.packageHash) : false;
+      },
+
+      async pauseDownload() {
+        return NativeCodePush.pauseDownload ? await NativeCodePush.pauseDownload(this.packageHash) : false;
+      },
+
+      async resumeDownload() {
+        return NativeCodePush.resumeDownload ? await NativeCodePush.resumeDownload(this.packageHash) : false;
+      },
+
       isPending: false // A remote package could never be in a pending state
     };
   };
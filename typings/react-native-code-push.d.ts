@@ -105,6 +105,23 @@ export interface Package {
     packageSize: number;
 }
 
+export interface PrefetchOptions {
+    /**
+     * Only download the update over an unmetered network, such as Wi-Fi. Defaults to true.
+     */
+    requiresUnmeteredNetwork?: boolean;
+
+    /**
+     * Only download the update while the device is charging. Defaults to false.
+     */
+    requiresCharging?: boolean;
+
+    /**
+     * Only download the update while the device is idle. Defaults to false.
+     */
+    requiresDeviceIdle?: boolean;
+}
+
 export interface RemotePackage extends Package {
     /**
      * Downloads the available update from the CodePush service.
@@ -113,6 +130,33 @@ export interface RemotePackage extends Package {
      */
     download(downloadProgressCallback?: DowloadProgressCallback): Promise<LocalPackage>;
 
+    /**
+     * Schedules this update to be downloaded in the background once the device meets the given conditions, so that a later
+     * call to download() completes right away. Resolves to whether the download was scheduled. Android 5.0 and above only.
+     *
+     * @param options Conditions the device must meet for the download to run.
+     */
+    prefetch(options?: PrefetchOptions): Promise<boolean>;
+
+    /**
+     * Stops the download of this update and discards what was downloaded so far, rejecting the promise returned by download().
+     * Resolves to whether a download of this update was in progress. Android only.
+     */
+    cancelDownload(): Promise<boolean>;
+
+    /**
+     * Stops the download of this update but keeps what was downloaded so far. The promise returned by download() stays
+     * pending until the download is resumed and completes. Resolves to whether a download of this update was in progress. Android only.
+     * When streaming extraction or segmented download is enabled, what was downloaded is discarded and resuming starts over.
+     */
+    pauseDownload(): Promise<boolean>;
+
+    /**
+     * Continues a download of this update that was paused with pauseDownload(). Resolves to whether a download of this
+     * update was in progress. Android only.
+     */
+    resumeDownload(): Promise<boolean>;
+
     /**
      * The URL at which the package is available for download.
      */